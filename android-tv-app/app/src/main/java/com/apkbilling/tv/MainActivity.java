@@ -21,6 +21,7 @@ import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.json.JSONObject;
 
@@ -28,6 +29,7 @@ import com.apkbilling.tv.services.BillingBackgroundService;
 import com.apkbilling.tv.services.NetworkMonitorService;
 import com.apkbilling.tv.services.WebSocketService;
 import com.apkbilling.tv.network.ApiClient;
+import com.apkbilling.tv.network.ApiFuture;
 import com.apkbilling.tv.models.DeviceStatus;
 import com.apkbilling.tv.utils.SettingsManager;
 
@@ -35,6 +37,8 @@ public class MainActivity extends AppCompatActivity {
     
     private static final String TAG = "MainActivity";
     private static final int REQUEST_OVERLAY_PERMISSION = 1000;
+    // Upper bound for the startup fan-out; each call also has its own endpoint deadline
+    private static final long STARTUP_CHECKS_TIMEOUT_MS = 20000;
     
     private TextView tvStatus;
     private TextView tvDeviceId; 
@@ -53,6 +57,7 @@ public class MainActivity extends AppCompatActivity {
     
     private ApiClient apiClient;
     private SettingsManager settingsManager;
+    private ApiFuture<Void> startupChecks;
     private boolean isBillingActive = false;
     
     // Session management (server-controlled timing)
@@ -62,6 +67,11 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        
+        // Connect to the backend while the layout inflates
+        settingsManager = new SettingsManager(this);
+        ApiClient.prewarm(this, settingsManager.getApiUrl(), false);
+        
         setContentView(R.layout.activity_main);
         
         initViews();
@@ -76,13 +86,21 @@ public class MainActivity extends AppCompatActivity {
         
         startServices();
         loadSettings();
-        updateStatus();
-        checkForActiveSession();
+        runStartupChecks();
         
         // Handle intent extras
         handleIntent(getIntent());
     }
     
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Stop waiting for startup results; a registration still in flight is cancelled
+        if (startupChecks != null) {
+            startupChecks.cancel();
+        }
+    }
+    
     @Override
     protected void onNewIntent(Intent intent) {
         super.onNewIntent(intent);
@@ -166,44 +184,88 @@ public class MainActivity extends AppCompatActivity {
         // Get server URL from settings
         String apiUrl = settingsManager.getApiUrl();
         apiClient.setBaseUrl(apiUrl);
-        
-        // Try to register device when API client is initialized
-        if (apiUrl != null && !apiUrl.isEmpty()) {
-            registerDevice();
-        }
+    }
+    
+    // Registration, health check and session lookup don't depend on each other:
+    // send all three as one batch and report when every one of them has settled
+    private void runStartupChecks() {
+        showDeviceInfo();
+        long startedAt = System.currentTimeMillis();
+        
+        ApiClient.Batch batch = apiClient.newBatch();
+        ApiFuture<ApiClient.DeviceResponse> registration = registerDevice(batch);
+        ApiFuture<Void> health = batch.testConnection()
+                .whenComplete(ApiFuture.mainThread(), new ApiClient.ApiCallback<Void>() {
+                    @Override
+                    public void onSuccess(Void data) {
+                        showServerConnected();
+                    }
+                    
+                    @Override
+                    public void onError(String error) {
+                        showServerError(error);
+                    }
+                });
+        ApiFuture<ApiClient.SessionResponse> session = checkForActiveSession(batch);
+        batch.execute();
+        
+        startupChecks = ApiFuture.allSettled(registration, health, session);
+        // The batched request isn't one of the three futures; abort it on cancel or timeout too
+        startupChecks.onCancel(batch::cancel);
+        startupChecks.timeout(STARTUP_CHECKS_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .whenComplete(new ApiClient.ApiCallback<Void>() {
+                    @Override
+                    public void onSuccess(Void data) {
+                        Log.d(TAG, "Startup checks done in " + (System.currentTimeMillis() - startedAt) + "ms" +
+                                " (registered=" + registration.isSuccess() +
+                                ", server=" + health.isSuccess() +
+                                ", session=" + session.isSuccess() + ")");
+                    }
+                    
+                    @Override
+                    public void onError(String error) {
+                        Log.w(TAG, "Startup checks incomplete: " + error);
+                    }
+                });
     }
     
     // Timer removed - using server-controlled timing via WebSocket events
     
-    private void checkForActiveSession() {
+    private ApiFuture<ApiClient.SessionResponse> checkForActiveSession(ApiClient.Batch batch) {
         String deviceId = settingsManager.getDeviceId();
         if (deviceId == null || deviceId.isEmpty()) {
             Log.d(TAG, "No device ID available for session check");
-            return;
+            return ApiFuture.failed("No device ID");
         }
         
         // Remove ATV_ prefix for session API calls - backend expects raw device ID
         String rawDeviceId = deviceId.startsWith("ATV_") ? deviceId.substring(4) : deviceId;
         Log.d(TAG, "Checking session for device: " + deviceId + " (raw: " + rawDeviceId + ")");
         
-        apiClient.getActiveSession(rawDeviceId, new ApiClient.SessionCallback() {
-            @Override
-            public void onSuccess(ApiClient.SessionResponse session) {
-                Log.d(TAG, "Active session found: " + session.customer_name);
-                runOnUiThread(() -> {
-                    startSession(session);
+        return batch.getActiveSession(rawDeviceId)
+                .whenComplete(ApiFuture.mainThread(), new ApiClient.ApiCallback<ApiClient.SessionResponse>() {
+                    @Override
+                    public void onSuccess(ApiClient.SessionResponse session) {
+                        Log.d(TAG, "Active session found: " + session.customer_name);
+                        startSession(session);
+                    }
+                    
+                    @Override
+                    public void onError(String error) {
+                        Log.d(TAG, "No active session: " + error);
+                        // No active session is normal, just continue
+                    }
                 });
-            }
-            
-            @Override
-            public void onError(String error) {
-                Log.d(TAG, "No active session: " + error);
-                // No active session is normal, just continue
-            }
-        });
     }
     
-    private void registerDevice() {
+    private ApiFuture<ApiClient.DeviceResponse> registerDevice(ApiClient.Batch batch) {
+        // Only register once a server has been configured
+        String apiUrl = settingsManager.getApiUrl();
+        if (apiUrl == null || apiUrl.isEmpty()) {
+            Log.d(TAG, "No server URL configured, skipping registration");
+            return ApiFuture.failed("No server URL");
+        }
+        
         String deviceId = android.provider.Settings.Secure.getString(
             getContentResolver(), android.provider.Settings.Secure.ANDROID_ID);
         String deviceName = settingsManager.getDeviceName();
@@ -214,24 +276,20 @@ public class MainActivity extends AppCompatActivity {
         
         Log.d(TAG, "Registering device: " + deviceId + " - " + deviceName);
         
-        apiClient.registerDevice(deviceId, deviceName, new ApiClient.ApiCallback<ApiClient.DeviceResponse>() {
-            @Override
-            public void onSuccess(ApiClient.DeviceResponse data) {
-                Log.d(TAG, "Device registered successfully: " + data.device_name);
-                runOnUiThread(() -> {
-                    updateStatus();
-                    showToast("Device registered: " + data.device_name);
-                });
-            }
-            
-            @Override
-            public void onError(String error) {
-                Log.e(TAG, "Device registration failed: " + error);
-                runOnUiThread(() -> {
-                    // Don't show error toast as it might be annoying, just log it
+        return batch.registerDevice(deviceId, deviceName)
+                .whenComplete(ApiFuture.mainThread(), new ApiClient.ApiCallback<ApiClient.DeviceResponse>() {
+                    @Override
+                    public void onSuccess(ApiClient.DeviceResponse data) {
+                        Log.d(TAG, "Device registered successfully: " + data.device_name);
+                        showToast("Device registered: " + data.device_name);
+                    }
+                    
+                    @Override
+                    public void onError(String error) {
+                        // Don't show error toast as it might be annoying, just log it
+                        Log.e(TAG, "Device registration failed: " + error);
+                    }
                 });
-            }
-        });
     }
     
     private void setupClickListeners() {
@@ -350,6 +408,12 @@ public class MainActivity extends AppCompatActivity {
                     resetTestButton();
                 });
             }
+            
+            @Override
+            public void onCancelled() {
+                // A newer test or re-registration switched servers
+                runOnUiThread(() -> resetTestButton());
+            }
         });
     }
     
@@ -383,6 +447,7 @@ public class MainActivity extends AppCompatActivity {
         
         // Save settings
         settingsManager.setServerUrl(serverUrl);
+        ApiClient.updateBackends(this);
         settingsManager.setDeviceName(deviceName);
         settingsManager.setDeviceLocation(deviceLocation);
         
@@ -459,35 +524,50 @@ public class MainActivity extends AppCompatActivity {
     
     
     private void updateStatus() {
+        showDeviceInfo();
+        
+        // Check server connection
+        checkServerConnection();
+    }
+    
+    private void showDeviceInfo() {
         // Update device info from settings
         String deviceName = settingsManager.getDeviceName();
         String deviceId = settingsManager.getDeviceId();
         tvDeviceId.setText("Device: " + deviceName + " (" + deviceId + ")");
-        
-        // Check server connection
-        checkServerConnection();
     }
     
     private void checkServerConnection() {
         apiClient.checkConnection(new ApiClient.ConnectionCallback() {
             @Override
             public void onSuccess() {
-                runOnUiThread(() -> {
-                    tvServerStatus.setText("Server: Connected (" + settingsManager.getServerUrl() + ")");
-                    tvServerStatus.setTextColor(getColor(R.color.status_active));
-                });
+                runOnUiThread(() -> showServerConnected());
             }
             
             @Override
             public void onError(String error) {
-                runOnUiThread(() -> {
-                    tvServerStatus.setText("Server: " + error + " (" + settingsManager.getServerUrl() + ")");
-                    tvServerStatus.setTextColor(getColor(R.color.status_error));
-                });
+                runOnUiThread(() -> showServerError(error));
             }
         });
     }
     
+    private void showServerConnected() {
+        // Shows the backup in use after a failover
+        tvServerStatus.setText("Server: Connected (" + ApiClient.getActiveServerUrl(this) + ")");
+        tvServerStatus.setTextColor(getColor(R.color.status_active));
+    }
+    
+    private void showServerError(String error) {
+        if (ApiClient.isServerRecovering()) {
+            // Backend is restarting, don't flap between connected and failed
+            tvServerStatus.setText("Server: recovering... (" + ApiClient.getActiveServerUrl(this) + ")");
+            tvServerStatus.setTextColor(getColor(R.color.status_warning));
+        } else {
+            tvServerStatus.setText("Server: " + error + " (" + ApiClient.getActiveServerUrl(this) + ")");
+            tvServerStatus.setTextColor(getColor(R.color.status_error));
+        }
+    }
+    
     private void updateUI() {
         if (isBillingActive) {
             tvStatus.setText("Status: BILLING ACTIVE");
@@ -13,10 +13,12 @@ import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.TextView;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.cardview.widget.CardView;
 
 import com.apkbilling.tv.network.ApiClient;
+import com.apkbilling.tv.network.Endpoint;
 import com.apkbilling.tv.utils.SettingsManager;
 
 public class SettingsActivity extends AppCompatActivity {
@@ -25,6 +27,7 @@ public class SettingsActivity extends AppCompatActivity {
     
     private EditText etServerIp;
     private EditText etServerPort;
+    private EditText etBackupServers;
     private EditText etDeviceName;
     private EditText etDeviceLocation;
     private EditText etWarningTime;
@@ -42,7 +45,6 @@ public class SettingsActivity extends AppCompatActivity {
     private ApiClient apiClient;
     private boolean isTestingConnection = false;
     private Handler timeoutHandler = new Handler(Looper.getMainLooper());
-    private Runnable timeoutRunnable;
     
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -58,6 +60,7 @@ public class SettingsActivity extends AppCompatActivity {
     private void initViews() {
         etServerIp = findViewById(R.id.et_server_ip);
         etServerPort = findViewById(R.id.et_server_port);
+        etBackupServers = findViewById(R.id.et_backup_servers);
         etDeviceName = findViewById(R.id.et_device_name);
         etDeviceLocation = findViewById(R.id.et_device_location);
         etWarningTime = findViewById(R.id.et_warning_time);
@@ -75,6 +78,8 @@ public class SettingsActivity extends AppCompatActivity {
     private void initManagers() {
         settingsManager = new SettingsManager(this);
         apiClient = new ApiClient(this);
+        // Test Connection checks the server typed in, not the backend currently in use
+        apiClient.setFollowBackends(false);
     }
     
     private void loadSettings() {
@@ -87,6 +92,7 @@ public class SettingsActivity extends AppCompatActivity {
             etServerIp.setText("192.168.1.2");
             etServerPort.setText("3000");
         }
+        etBackupServers.setText(settingsManager.getBackupServerUrls());
         
         etDeviceName.setText(settingsManager.getDeviceName());
         etDeviceLocation.setText(settingsManager.getDeviceLocation());
@@ -111,6 +117,11 @@ public class SettingsActivity extends AppCompatActivity {
     
     private void setupClickListeners() {
         btnTestConnection.setOnClickListener(v -> testConnection());
+        // Hidden debug screen for field diagnosis: hold OK on the test button
+        btnTestConnection.setOnLongClickListener(v -> {
+            showNetworkDiagnostics();
+            return true;
+        });
         btnSaveSettings.setOnClickListener(v -> saveSettings());
         btnBack.setOnClickListener(v -> finish());
     }
@@ -158,26 +169,11 @@ public class SettingsActivity extends AppCompatActivity {
         btnTestConnection.setEnabled(false);
         btnTestConnection.setText("TESTING...");
         
-        // Set timeout
-        timeoutRunnable = () -> {
-            if (isTestingConnection) {
-                isTestingConnection = false;
-                runOnUiThread(() -> {
-                    resetTestButton();
-                    showErrorStatus("Connection Timeout", 
-                        "Failed to connect to server within 10 seconds.\n" +
-                        "Check IP address, port, and network connection.");
-                });
-            }
-        };
-        timeoutHandler.postDelayed(timeoutRunnable, 10000); // 10 second timeout
-        
         apiClient.setBaseUrl(serverUrl + "/api");
         apiClient.testConnection(new ApiClient.ConnectionCallback() {
             @Override
             public void onSuccess() {
                 isTestingConnection = false;
-                timeoutHandler.removeCallbacks(timeoutRunnable);
                 
                 runOnUiThread(() -> {
                     resetTestButton();
@@ -190,15 +186,29 @@ public class SettingsActivity extends AppCompatActivity {
             @Override
             public void onError(String error) {
                 isTestingConnection = false;
-                timeoutHandler.removeCallbacks(timeoutRunnable);
                 
                 runOnUiThread(() -> {
                     resetTestButton();
                     
+                    // The HEALTH endpoint deadline bounds the whole test
+                    if (error.contains("DeadlineExceeded")) {
+                        showErrorStatus("Connection Timeout", 
+                            "Failed to connect to server within " + (Endpoint.HEALTH.getDeadlineMillis() / 1000) + " seconds.\n" +
+                            "Check IP address, port, and network connection.");
+                        return;
+                    }
+                    
                     String friendlyError = getFriendlyErrorMessage(error);
                     showErrorStatus("Connection Failed", friendlyError);
                 });
             }
+            
+            @Override
+            public void onCancelled() {
+                // Settings were saved with another server while testing
+                isTestingConnection = false;
+                runOnUiThread(() -> resetTestButton());
+            }
         });
     }
     
@@ -216,6 +226,25 @@ public class SettingsActivity extends AppCompatActivity {
         }
     }
     
+    private void showNetworkDiagnostics() {
+        String diagnostics = "Latency (ms)\n" + ApiClient.getLatencyStats() +
+                "\nConnections\n" + ApiClient.getConnectionStats() +
+                "\nBackends\n" + ApiClient.getBackendStats() +
+                "\nWebSocket RPC: " + ApiClient.getSocketRpcStats() +
+                "\nHeartbeats: " + ApiClient.getHeartbeatStats() +
+                "\n\nScheduler\n" + ApiClient.getSchedulerStats() +
+                "\nSession lookups\n" + ApiClient.getSessionLookupStats() +
+                "\n\nRetries, request budgets and circuits (" + ApiClient.getShedRequestCount() + " shed)\n" +
+                ApiClient.getResilienceStats() +
+                "\nRequest compression\n" + ApiClient.getCompressionStats();
+        
+        new AlertDialog.Builder(this)
+                .setTitle("Network Diagnostics")
+                .setMessage(diagnostics)
+                .setPositiveButton("Close", null)
+                .show();
+    }
+    
     private void resetTestButton() {
         btnTestConnection.setEnabled(true);
         btnTestConnection.setText("TEST CONNECTION");
@@ -251,6 +280,26 @@ public class SettingsActivity extends AppCompatActivity {
         tvStatusMessage.setText(message);
     }
     
+    // "ip:port" or "http://ip:port" entries to a comma separated list of URLs, null if one is invalid
+    private String normalizeBackupServers(String input) {
+        StringBuilder sb = new StringBuilder();
+        for (String entry : input.split(",")) {
+            String trimmed = entry.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            String[] parts = trimmed.replaceFirst("^https?://", "").split(":");
+            if (parts.length != 2 || !isValidIpAddress(parts[0]) || !isValidPort(parts[1])) {
+                return null;
+            }
+            if (sb.length() > 0) {
+                sb.append(",");
+            }
+            sb.append("http://").append(parts[0]).append(":").append(parts[1]);
+        }
+        return sb.toString();
+    }
+    
     private boolean isValidIpAddress(String ip) {
         return Patterns.IP_ADDRESS.matcher(ip).matches();
     }
@@ -292,6 +341,12 @@ public class SettingsActivity extends AppCompatActivity {
             return;
         }
         
+        String backupServers = normalizeBackupServers(etBackupServers.getText().toString());
+        if (backupServers == null) {
+            showErrorStatus("Invalid Backup Server", "Enter backup servers as IP:port, separated by commas");
+            return;
+        }
+        
         int warningTime = 5; // default
         if (!TextUtils.isEmpty(warningTimeStr)) {
             try {
@@ -309,6 +364,8 @@ public class SettingsActivity extends AppCompatActivity {
         // Save settings
         String serverUrl = "http://" + serverIp + ":" + serverPort;
         settingsManager.setServerUrl(serverUrl);
+        settingsManager.setBackupServerUrls(backupServers);
+        ApiClient.updateBackends(this);
         settingsManager.setDeviceName(deviceName);
         settingsManager.setDeviceLocation(deviceLocation);
         settingsManager.setWarningTimeMinutes(warningTime);
@@ -371,8 +428,6 @@ public class SettingsActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        if (timeoutRunnable != null) {
-            timeoutHandler.removeCallbacks(timeoutRunnable);
-        }
+        timeoutHandler.removeCallbacksAndMessages(null);
     }
 }
\ No newline at end of file
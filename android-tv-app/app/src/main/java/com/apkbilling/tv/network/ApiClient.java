@@ -1,110 +1,353 @@
 package com.apkbilling.tv.network;
 
 import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
 import android.util.Log;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
-import java.lang.reflect.Type;
+import com.apkbilling.tv.utils.SettingsManager;
+import com.google.gson.JsonElement;
+import com.google.gson.TypeAdapter;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import okhttp3.Call;
-import okhttp3.Callback;
-import okhttp3.MediaType;
+import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 
 public class ApiClient {
     private static final String TAG = "ApiClient";
-    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    private static final String IDEMPOTENCY_HEADER = "Idempotency-Key";
+    // Milliseconds the client will still wait for this answer; the server can drop work past it
+    private static final String DEADLINE_HEADER = "X-Request-Deadline-Ms";
+    private static final String BUSY_MESSAGE = "Server busy, please wait";
+    private static final String SHED_MESSAGE = "Too many requests from this device, please wait";
+    private static final String CANCELLED_MESSAGE = "Request cancelled: server address changed";
     
     private Context context;
-    private OkHttpClient client;
-    private Gson gson;
-    private String baseUrl = "http://192.168.1.2:3000/api";
+    private volatile String baseUrl = "http://192.168.1.2:3000/api";
+    // Requests go to the backend BackendSelector picked when baseUrl is one of the configured servers
+    private volatile boolean followBackends = true;
+    
+    // Bumped by every setBaseUrl() that changes the server. Calls remember the
+    // generation they were issued in; older ones are cancelled and their callbacks dropped.
+    private final AtomicInteger generation = new AtomicInteger();
+    private final Set<Exchange> activeCalls = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    
+    // Session data has minute granularity, a couple of seconds of reuse is harmless
+    private static final long DEFAULT_SESSION_FRESHNESS_MS = 2000;
+    
+    // Shared by every ApiClient so MainActivity and BillingBackgroundService lookups coalesce
+    private static final SingleFlight<SessionResponse> sessionLookups =
+            new SingleFlight<>(DEFAULT_SESSION_FRESHNESS_MS);
+    
+    // Mutations are only resent to servers that showed they deduplicate by echoing
+    // the Idempotency-Key on a response; anywhere else a lost answer stays unretried
+    private static final RetryPolicy MUTATION_RETRY_POLICY = new RetryPolicy(4, 250, 4000);
+    private static final Set<String> deduplicatingHosts = ConcurrentHashMap.newKeySet();
+    
+    // Last ETag per active-session URL, for conditional polling
+    private static final ValidatorCache<SessionResponse> sessionValidators = new ValidatorCache<>();
+    
+    // Overlapping connection tests against the same server share one request
+    private static final SingleFlight<Boolean> healthChecks = new SingleFlight<>(0);
+    
+    // What the server already knows of the device name/location, for delta heartbeats
+    private static final HeartbeatState heartbeatState = new HeartbeatState();
+    
+    // After a failover or failback the new backend has seen neither device state nor lookups
+    private static final BackendSelector.Listener BACKEND_LISTENER = (serverUrl, reason) -> {
+        Log.i(TAG, "Backend changed to " + serverUrl + " (" + reason + ")");
+        heartbeatState.requestResync();
+        sessionLookups.invalidateAll();
+    };
+    
+    // Latency histograms ride along every Nth heartbeat (~5 minutes at 15 s)
+    private static final int METRICS_EVERY_N_HEARTBEATS = 20;
+    private static int heartbeatsSinceMetrics = 0;
+    
+    // RegistrationCache keys
+    private static final String REGISTER_OPERATION = "register";
+    private static final String DISCOVER_OPERATION = "discover";
+    
+    // A server that answered 404 to /tv/batch is not asked again for a day
+    private static final String BATCH_PREFS_NAME = "APKBillingBatch";
+    private static final long BATCH_PROBE_INTERVAL_MS = 24 * 60 * 60 * 1000L;
     
     public ApiClient(Context context) {
         this.context = context;
-        this.gson = new GsonBuilder().create();
-        this.client = new OkHttpClient.Builder()
-                .connectTimeout(5, TimeUnit.SECONDS)
-                .readTimeout(10, TimeUnit.SECONDS)
-                .writeTimeout(10, TimeUnit.SECONDS)
-                .build();
+        // Shared engine: one connection pool and dispatcher for the whole process
+        applyProtocolSettings(context);
+        updateBackends(context);
+        BackendSelector.getInstance(context).addListener(BACKEND_LISTENER);
+    }
+    
+    // Re-reads the server list and selection mode from settings; call after saving them.
+    // In hashed mode the list is reordered per device: the node the ring assigns to this
+    // device id comes first (REST and WebSocket both go there), failover follows the ring.
+    public static void updateBackends(Context context) {
+        SettingsManager settings = new SettingsManager(context);
+        List<String> servers = settings.getServerUrls();
+        if (SettingsManager.SERVER_SELECTION_HASHED.equals(settings.getServerSelection()) && servers.size() > 1) {
+            servers = new ConsistentHashRing(servers).preferenceList(settings.getDeviceId());
+        }
+        BackendSelector.getInstance(context).setBackends(servers);
+    }
+    
+    // h2c is opt-in because the stock backend only speaks HTTP/1.1
+    private static void applyProtocolSettings(Context context) {
+        HttpEngine.getInstance().setPriorKnowledgeEnabled(
+                new SettingsManager(context).isHttp2PriorKnowledgeEnabled());
+    }
+    
+    // Open connections to the backend in the background, e.g. while the UI inflates
+    // or right after the network came back, so the first real call finds a warm socket
+    public static void prewarm(Context context, String apiBaseUrl, boolean networkChanged) {
+        applyProtocolSettings(context);
+        // Express answers HEAD /api/health from its GET route: 200, headers only
+        HttpUrl url = HttpUrl.parse(apiBaseUrl + "/health");
+        if (url == null) {
+            Log.w(TAG, "Cannot pre-warm invalid URL: " + apiBaseUrl);
+            return;
+        }
+        HttpEngine.getInstance().prewarm(url, networkChanged);
+    }
+    
+    public static HttpEngine.Stats getConnectionStats() {
+        return HttpEngine.getInstance().getStats();
+    }
+    
+    // 0 disables reuse; concurrent lookups are still coalesced
+    public static void setSessionFreshnessWindow(long millis) {
+        sessionLookups.setFreshnessMillis(millis);
+    }
+    
+    // Called when a WebSocket event says the session changed on the server
+    public static void invalidateSessionLookups() {
+        sessionLookups.invalidateAll();
+    }
+    
+    // True while a circuit breaker is open, e.g. the backend is restarting
+    public static boolean isServerRecovering() {
+        return Resilience.getInstance().isRecovering();
+    }
+    
+    // Queue depth and wait time per priority lane
+    public static String getSchedulerStats() {
+        return HttpEngine.getInstance().getRequestScheduler().getStats();
+    }
+    
+    // p50/p95/p99 per endpoint and call phase
+    public static String getLatencyStats() {
+        return HttpEngine.getInstance().getMetrics().getSummary();
+    }
+    
+    public static String getCompressionStats() {
+        return RequestCompressor.getInstance().getStats();
+    }
+    
+    // Per-TV outbound budget for one endpoint class; requests beyond it are shed, not sent
+    public static void setRateLimit(EndpointClass endpointClass, double ratePerMinute, int burst) {
+        Resilience.getInstance().setRateLimit(endpointClass, ratePerMinute, burst);
+    }
+    
+    public static long getShedRequestCount() {
+        return Resilience.getInstance().getShedCount();
+    }
+    
+    // Delay a periodic caller (heartbeat, session polling) should use instead of its
+    // default: stretched by the server's interval hint and any pending Retry-After
+    public static long getPollInterval(EndpointClass endpointClass, long defaultMillis) {
+        return Resilience.getInstance().getBackpressure(endpointClass).getInterval(defaultMillis);
+    }
+    
+    public static String getResilienceStats() {
+        return Resilience.getInstance().getStats();
+    }
+    
+    public static String getHeartbeatStats() {
+        return heartbeatState.getStats();
+    }
+    
+    public static String getSocketRpcStats() {
+        return SocketRpc.getInstance().getStats();
+    }
+    
+    // Server ApiClient talks to. Loads the backend list if no ApiClient did yet, so a
+    // WebSocketService started first still lands on this device's node in hashed mode
+    public static String getActiveServerUrl(Context context) {
+        BackendSelector selector = BackendSelector.peek();
+        if (selector == null || selector.getActiveServerUrl() == null) {
+            updateBackends(context);
+            selector = BackendSelector.peek();
+        }
+        String active = selector.getActiveServerUrl();
+        return active != null ? active : new SettingsManager(context).getServerUrl();
+    }
+    
+    public static String getBackendStats() {
+        BackendSelector selector = BackendSelector.peek();
+        return selector != null ? selector.getStats() : "not configured";
+    }
+    
+    public static String getSessionLookupStats() {
+        return sessionLookups.getStats() + " " + sessionValidators.getStats();
     }
     
     public void setBaseUrl(String baseUrl) {
+        if (baseUrl == null ? this.baseUrl == null : baseUrl.equals(this.baseUrl)) {
+            return;
+        }
+        if (this.baseUrl != null) {
+            // A different server has never seen the device name/location
+            heartbeatState.requestResync();
+        }
         this.baseUrl = baseUrl;
+        
+        // Nothing from the old server is wanted any more: free its sockets and slots
+        int current = generation.incrementAndGet();
+        int cancelled = 0;
+        for (Exchange exchange : activeCalls) {
+            exchange.cancel();
+            cancelled++;
+        }
+        Log.d(TAG, "Base URL changed to " + baseUrl + " (generation " + current + ", cancelled " + cancelled + " calls)");
+    }
+    
+    // Off for clients that must talk to exactly the URL they were given,
+    // e.g. the settings screen testing a server the user typed in
+    public void setFollowBackends(boolean followBackends) {
+        this.followBackends = followBackends;
+    }
+    
+    private String apiBase() {
+        String base = baseUrl;
+        BackendSelector selector = BackendSelector.peek();
+        return followBackends && selector != null ? selector.resolve(base) : base;
     }
     
     public interface ConnectionCallback {
         void onSuccess();
         void onError(String error);
+        
+        // The test was abandoned because the base URL changed; override to reset UI state
+        default void onCancelled() {
+        }
     }
     
     public interface ApiCallback<T> {
         void onSuccess(T data);
         void onError(String error);
+        
+        // Server answered 304 Not Modified; data is the previously received value
+        default void onNotModified(T data) {
+            onSuccess(data);
+        }
     }
     
     public interface SessionCallback {
         void onSuccess(SessionResponse session);
         void onError(String error);
+        
+        // Session is exactly as last reported; override to skip re-applying it
+        default void onUnchanged(SessionResponse session) {
+            onSuccess(session);
+        }
+        
+        // The lookup was abandoned because the base URL changed
+        default void onCancelled() {
+        }
     }
     
     public void testConnection(ConnectionCallback callback) {
-        String url = baseUrl + "/health";
+        String url = apiBase() + "/health";
         Log.d(TAG, "Testing connection to: " + url);
         
-        Request request = new Request.Builder()
-                .url(url)
-                .addHeader("Accept", "application/json")
-                .build();
-        
-        client.newCall(request).enqueue(new Callback() {
+        healthChecks.execute(url, guard(new ApiCallback<Boolean>() {
             @Override
-            public void onFailure(Call call, IOException e) {
-                Log.e(TAG, "Connection failed to " + url, e);
-                
-                String errorMessage = e.getMessage();
-                if (e instanceof java.net.ConnectException) {
-                    errorMessage = "ConnectException: " + e.getMessage();
-                } else if (e instanceof java.net.SocketTimeoutException) {
-                    errorMessage = "SocketTimeoutException: " + e.getMessage();
-                } else if (e instanceof java.net.UnknownHostException) {
-                    errorMessage = "UnknownHostException: " + e.getMessage();
-                } else if (e instanceof java.io.IOException) {
-                    errorMessage = "NetworkException: " + e.getMessage();
-                }
-                
-                callback.onError(errorMessage);
+            public void onSuccess(Boolean data) {
+                callback.onSuccess();
             }
             
             @Override
-            public void onResponse(Call call, Response response) throws IOException {
-                Log.d(TAG, "Response received: " + response.code());
+            public void onError(String error) {
+                callback.onError(error);
+            }
+        }, callback::onCancelled), done -> {
+            Request request = new Request.Builder()
+                    .url(url)
+                    .addHeader("Accept", "application/json")
+                    .build();
+            
+            if (!admit(Endpoint.HEALTH, false)) {
+                done.onError(SHED_MESSAGE);
+                return;
+            }
+            
+            long deadlineAt = SystemClock.elapsedRealtime() + Endpoint.HEALTH.getDeadlineMillis();
+            int issuedIn = generation.get();
+            dispatch(Endpoint.HEALTH, RequestScheduler.Lane.NORMAL, null, request, deadlineAt, issuedIn, null, new Exchange.Callback() {
+                @Override
+                public void onFailure(IOException e) {
+                    if (issuedIn != generation.get()) {
+                        done.onError(CANCELLED_MESSAGE);
+                        return;
+                    }
+                    Log.e(TAG, "Connection failed to " + url, e);
+                    
+                    String errorMessage = e.getMessage();
+                    if (e instanceof java.net.ConnectException) {
+                        errorMessage = "ConnectException: " + e.getMessage();
+                    } else if (e instanceof java.net.SocketTimeoutException) {
+                        errorMessage = "SocketTimeoutException: " + e.getMessage();
+                    } else if (e instanceof InterruptedIOException) {
+                        // Call timeout fired: the HEALTH deadline ran out
+                        errorMessage = "DeadlineExceeded: " + e.getMessage();
+                    } else if (e instanceof java.net.UnknownHostException) {
+                        errorMessage = "UnknownHostException: " + e.getMessage();
+                    } else if (e instanceof java.io.IOException) {
+                        errorMessage = "NetworkException: " + e.getMessage();
+                    }
+                    
+                    done.onError(errorMessage);
+                }
                 
-                try {
-                    if (response.isSuccessful()) {
-                        String responseBody = response.body().string();
-                        Log.d(TAG, "Connection test successful. Response: " + responseBody);
-                        callback.onSuccess();
-                    } else {
-                        Log.w(TAG, "Server error: " + response.code() + " " + response.message());
-                        callback.onError("Server Error: HTTP " + response.code() + " - " + response.message());
+                @Override
+                public void onResponse(Response response) throws IOException {
+                    Log.d(TAG, "Response received: " + response.code());
+                    
+                    try {
+                        if (response.isSuccessful()) {
+                            // Body content is irrelevant for a health check, don't buffer it
+                            Log.d(TAG, "Connection test successful");
+                            done.onSuccess(true);
+                        } else {
+                            recordRetryAfter(EndpointClass.HEALTH, response);
+                            Log.w(TAG, "Server error: " + response.code() + " " + response.message());
+                            done.onError("Server Error: HTTP " + response.code() + " - " + response.message());
+                        }
+                    } catch (Exception e) {
+                        Log.e(TAG, "Error processing response", e);
+                        done.onError("Response Error: " + e.getMessage());
+                    } finally {
+                        response.close();
                     }
-                } catch (Exception e) {
-                    Log.e(TAG, "Error processing response", e);
-                    callback.onError("Response Error: " + e.getMessage());
-                } finally {
-                    response.close();
                 }
-            }
+            }, () -> done.onError("Connection test superseded"));
         });
     }
     
@@ -113,61 +356,289 @@ public class ApiClient {
         testConnection(callback);
     }
     
-    public void discoverDevice(String deviceId, String deviceName, String location, ApiCallback<DeviceResponse> callback) {
-        String url = baseUrl + "/tv/discover";
+    // Future-returning variants. Cancelling (or timing out) a mutation or heartbeat
+    // future cancels its HTTP call; lookups and connection tests are shared with other
+    // callers, so cancelling one of those futures only stops waiting for the result.
+    
+    public ApiFuture<Void> testConnectionAsync() {
+        ApiFuture<Void> future = new ApiFuture<>();
+        testConnection(connectionCallback(future));
+        return future;
+    }
+    
+    private static ConnectionCallback connectionCallback(ApiFuture<Void> future) {
+        return new ConnectionCallback() {
+            @Override
+            public void onSuccess() {
+                future.onSuccess(null);
+            }
+            
+            @Override
+            public void onError(String error) {
+                future.onError(error);
+            }
+            
+            @Override
+            public void onCancelled() {
+                future.cancel();
+            }
+        };
+    }
+    
+    public ApiFuture<DeviceResponse> discoverDeviceAsync(String deviceId, String deviceName, String location) {
+        ApiFuture<DeviceResponse> future = new ApiFuture<>();
+        discoverDevice(deviceId, deviceName, location, future);
+        return future;
+    }
+    
+    public ApiFuture<DeviceResponse> registerDeviceAsync(String deviceId, String deviceName) {
+        ApiFuture<DeviceResponse> future = new ApiFuture<>();
+        registerDevice(deviceId, deviceName, future);
+        return future;
+    }
+    
+    public ApiFuture<SessionResponse> startSessionAsync(String operationId, String deviceId, String packageId,
+                                                        String customerId) {
+        ApiFuture<SessionResponse> future = new ApiFuture<>();
+        startSession(operationId, deviceId, packageId, customerId, future);
+        return future;
+    }
+    
+    public ApiFuture<SessionResponse> stopSessionAsync(String sessionId) {
+        ApiFuture<SessionResponse> future = new ApiFuture<>();
+        stopSession(sessionId, future);
+        return future;
+    }
+    
+    public ApiFuture<SessionResponse> getActiveSessionAsync(String deviceId) {
+        ApiFuture<SessionResponse> future = new ApiFuture<>();
+        getActiveSession(deviceId, sessionCallback(future));
+        return future;
+    }
+    
+    private static SessionCallback sessionCallback(ApiFuture<SessionResponse> future) {
+        return new SessionCallback() {
+            @Override
+            public void onSuccess(SessionResponse session) {
+                future.onSuccess(session);
+            }
+            
+            @Override
+            public void onError(String error) {
+                future.onError(error);
+            }
+            
+            @Override
+            public void onCancelled() {
+                future.cancel();
+            }
+        };
+    }
+    
+    public ApiFuture<HeartbeatResponse> sendHeartbeatAsync(String deviceId, String deviceName, String deviceLocation) {
+        ApiFuture<HeartbeatResponse> future = new ApiFuture<>();
+        sendHeartbeat(deviceId, deviceName, deviceLocation, future);
+        return future;
+    }
+    
+    // Several calls in one POST /tv/batch, e.g. registration, health check and session
+    // lookup at boot. Each operation still completes its own future. Servers without
+    // the endpoint (404/405/501) get the individual calls instead, and are remembered
+    // so later boots don't pay for the probe.
+    public Batch newBatch() {
+        return new Batch();
+    }
+    
+    public final class Batch {
+        private final List<BatchEntry<?>> entries = new ArrayList<>();
+        private final List<ApiFuture<Void>> healthChecks = new ArrayList<>();
+        // Owner of the POST /tv/batch call: cancelling it aborts the exchange and its retries
+        private final ApiFuture<Void> exchange = new ApiFuture<>();
+        private boolean executed = false;
         
-        DeviceRequest request = new DeviceRequest();
-        request.device_id = deviceId;
-        request.device_name = deviceName;
-        request.device_type = "android_tv";
-        request.screen_resolution = "1920x1080";
-        request.os_version = android.os.Build.VERSION.RELEASE;
-        request.app_version = "1.0.0";
-        request.location = location;
+        private Batch() {
+        }
         
-        String json = gson.toJson(request);
-        RequestBody body = RequestBody.create(json, JSON);
+        public ApiFuture<DeviceResponse> registerDevice(String deviceId, String deviceName) {
+            DeviceRequest request = registrationRequest(deviceId, deviceName);
+            String fingerprint = RegistrationCache.fingerprint(apiBase(), request);
+            DeviceResponse cached = RegistrationCache.getInstance(context).lookup(REGISTER_OPERATION, fingerprint);
+            if (cached != null) {
+                Log.d(TAG, "Registration unchanged, leaving it out of the batch");
+                return ApiFuture.completed(cached);
+            }
+            
+            ApiFuture<DeviceResponse> future = new ApiFuture<>();
+            entries.add(new BatchEntry<>("POST", "/tv/register", JsonCodec.DEVICE_REQUEST.toJsonTree(request),
+                    new CallSpec<>(Endpoint.REGISTER, JsonCodec.DEVICE_RESPONSE, "Registration failed", null),
+                    rememberRegistration(REGISTER_OPERATION, fingerprint, future),
+                    () -> ApiClient.this.registerDevice(deviceId, deviceName, future)));
+            return future;
+        }
         
-        Request httpRequest = new Request.Builder()
-                .url(url)
-                .post(body)
-                .build();
+        public ApiFuture<SessionResponse> getActiveSession(String deviceId) {
+            ApiFuture<SessionResponse> future = new ApiFuture<>();
+            entries.add(new BatchEntry<>("GET", "/tv/active-session/" + deviceId, null,
+                    new CallSpec<>(Endpoint.ACTIVE_SESSION, JsonCodec.SESSION_RESPONSE, "Failed to get session", "No active session"),
+                    guard(future), () -> ApiClient.this.getActiveSession(deviceId, sessionCallback(future))));
+            return future;
+        }
         
-        client.newCall(httpRequest).enqueue(new Callback() {
-            @Override
-            public void onFailure(Call call, IOException e) {
-                Log.e(TAG, "Device discovery failed", e);
-                callback.onError("Discovery failed: " + e.getMessage());
+        // Answered by the batch exchange itself, no operation is sent
+        public ApiFuture<Void> testConnection() {
+            ApiFuture<Void> future = new ApiFuture<>();
+            healthChecks.add(future);
+            return future;
+        }
+        
+        public void execute() {
+            if (executed) {
+                throw new IllegalStateException("Batch already executed");
             }
+            executed = true;
             
-            @Override
-            public void onResponse(Call call, Response response) throws IOException {
-                String responseBody = response.body().string();
-                response.close();
-                
-                if (response.isSuccessful()) {
-                    try {
-                        Type responseType = new TypeToken<ApiResponse<DeviceResponse>>(){}.getType();
-                        ApiResponse<DeviceResponse> apiResponse = gson.fromJson(responseBody, responseType);
-                        if (apiResponse.success) {
-                            callback.onSuccess(apiResponse.data);
+            HttpUrl url = HttpUrl.parse(apiBase() + "/tv/batch");
+            if (url == null || isBatchUnsupported(url)) {
+                runIndividually();
+                return;
+            }
+            
+            BatchRequest request = new BatchRequest();
+            request.operations = new ArrayList<>();
+            for (int i = 0; i < entries.size(); i++) {
+                BatchEntry<?> entry = entries.get(i);
+                entry.operation.id = String.valueOf(i);
+                request.operations.add(entry.operation);
+            }
+            
+            ApiCallback<BatchResponse> fanOut = new ApiCallback<BatchResponse>() {
+                @Override
+                public void onSuccess(BatchResponse data) {
+                    exchange.onSuccess(null);
+                    for (ApiFuture<Void> health : healthChecks) {
+                        health.onSuccess(null);
+                    }
+                    Map<String, BatchResult> results = new HashMap<>();
+                    if (data.results != null) {
+                        for (BatchResult result : data.results) {
+                            // A null or id-less result can't be matched to an operation
+                            if (result != null && result.id != null) {
+                                results.put(result.id, result);
+                            }
+                        }
+                    }
+                    List<BatchEntry<?>> missing = new ArrayList<>();
+                    for (BatchEntry<?> entry : entries) {
+                        BatchResult result = results.get(entry.operation.id);
+                        if (result != null) {
+                            entry.complete(result);
                         } else {
-                            callback.onError(apiResponse.message);
+                            missing.add(entry);
                         }
-                    } catch (Exception e) {
-                        Log.e(TAG, "Failed to parse device response", e);
-                        Log.e(TAG, "Response body: " + responseBody);
-                        callback.onError("Invalid response format");
                     }
-                } else {
-                    callback.onError("Server error: " + response.code());
+                    if (!missing.isEmpty()) {
+                        Log.w(TAG, missing.size() + " operation(s) missing from batch response, sending them individually");
+                        for (BatchEntry<?> entry : missing) {
+                            entry.fallback.run();
+                        }
+                    }
+                }
+                
+                @Override
+                public void onError(String error) {
+                    exchange.onSuccess(null);
+                    for (ApiFuture<Void> health : healthChecks) {
+                        health.onError(error);
+                    }
+                    for (BatchEntry<?> entry : entries) {
+                        entry.callback.onError(error);
+                    }
                 }
+            };
+            
+            RequestBody body = encode(request, JsonCodec.BATCH_REQUEST, fanOut);
+            if (body == null) return;
+            
+            Log.d(TAG, "Sending " + entries.size() + " operations in one batch");
+            CallSpec<BatchResponse> spec = new CallSpec<>(Endpoint.BATCH, JsonCodec.BATCH_RESPONSE, "Batch failed", "Empty batch response")
+                    .unsupported(() -> {
+                        exchange.onSuccess(null);
+                        Log.i(TAG, "Server has no batch endpoint, sending calls individually");
+                        rememberBatchUnsupported(url);
+                        runIndividually();
+                    });
+            spec.owner = exchange;
+            enqueue(new Request.Builder().url(url).post(body).build(), spec, fanOut);
+        }
+        
+        // Aborts the batch request if it is still in flight. The operations' own futures
+        // are left to their callers; individual fallback calls follow those futures.
+        public void cancel() {
+            if (exchange.cancel()) {
+                Log.d(TAG, "Batch cancelled");
             }
-        });
+        }
+        
+        private void runIndividually() {
+            for (ApiFuture<Void> health : healthChecks) {
+                ApiClient.this.testConnection(connectionCallback(health));
+            }
+            for (BatchEntry<?> entry : entries) {
+                entry.fallback.run();
+            }
+        }
     }
     
-    public void registerDevice(String deviceId, String deviceName, ApiCallback<DeviceResponse> callback) {
-        String url = baseUrl + "/tv/register";
+    // One operation of a Batch with the spec its result is decoded and delivered with
+    private static final class BatchEntry<T> {
+        final BatchOperation operation = new BatchOperation();
+        final CallSpec<T> spec;
+        final ApiCallback<T> callback;
+        // The same call made on its own, for servers without /tv/batch
+        final Runnable fallback;
+        
+        BatchEntry(String method, String path, JsonElement body, CallSpec<T> spec, ApiCallback<T> callback,
+                   Runnable fallback) {
+            operation.method = method;
+            operation.path = path;
+            operation.body = body;
+            this.spec = spec;
+            this.callback = callback;
+            this.fallback = fallback;
+        }
+        
+        void complete(BatchResult result) {
+            ApiResponse<T> apiResponse = null;
+            if (result.body != null && result.body.isJsonObject()) {
+                try {
+                    apiResponse = spec.adapter.fromJsonTree(result.body);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Failed to parse batch result " + operation.path, e);
+                }
+            }
+            if (apiResponse == null) {
+                callback.onError(result.status >= 400 ? "Server error: " + result.status : "Invalid response format");
+                return;
+            }
+            deliver(apiResponse, spec, false, callback);
+        }
+    }
+    
+    private boolean isBatchUnsupported(HttpUrl url) {
+        long markedAt = batchPrefs().getLong(url.host() + ":" + url.port(), 0);
+        return markedAt > 0 && System.currentTimeMillis() - markedAt < BATCH_PROBE_INTERVAL_MS;
+    }
+    
+    private void rememberBatchUnsupported(HttpUrl url) {
+        batchPrefs().edit().putLong(url.host() + ":" + url.port(), System.currentTimeMillis()).apply();
+    }
+    
+    private SharedPreferences batchPrefs() {
+        return context.getApplicationContext().getSharedPreferences(BATCH_PREFS_NAME, Context.MODE_PRIVATE);
+    }
+    
+    public void discoverDevice(String deviceId, String deviceName, String location, ApiCallback<DeviceResponse> callback) {
+        String url = apiBase() + "/tv/discover";
         
         DeviceRequest request = new DeviceRequest();
         request.device_id = deviceId;
@@ -176,136 +647,137 @@ public class ApiClient {
         request.screen_resolution = "1920x1080";
         request.os_version = android.os.Build.VERSION.RELEASE;
         request.app_version = "1.0.0";
+        request.location = location;
+        
+        // Saving unchanged settings doesn't need another device row write
+        String fingerprint = RegistrationCache.fingerprint(apiBase(), request);
+        DeviceResponse cached = RegistrationCache.getInstance(context).lookup(DISCOVER_OPERATION, fingerprint);
+        if (cached != null) {
+            Log.d(TAG, "Device info unchanged, skipping discovery");
+            callback.onSuccess(cached);
+            return;
+        }
+        
+        RequestBody body = encode(request, JsonCodec.DEVICE_REQUEST, callback);
+        if (body == null) return;
+        
+        Request httpRequest = new Request.Builder()
+                .url(url)
+                .post(body)
+                .build();
         
-        String json = gson.toJson(request);
-        RequestBody body = RequestBody.create(json, JSON);
+        enqueue(httpRequest, new CallSpec<>(Endpoint.DISCOVER, JsonCodec.DEVICE_RESPONSE, "Discovery failed", null),
+                rememberRegistration(DISCOVER_OPERATION, fingerprint, callback));
+    }
+    
+    public void registerDevice(String deviceId, String deviceName, ApiCallback<DeviceResponse> callback) {
+        String url = apiBase() + "/tv/register";
+        
+        DeviceRequest request = registrationRequest(deviceId, deviceName);
+        
+        // Kiosk relaunches re-run this many times a day with the same identity
+        String fingerprint = RegistrationCache.fingerprint(apiBase(), request);
+        DeviceResponse cached = RegistrationCache.getInstance(context).lookup(REGISTER_OPERATION, fingerprint);
+        if (cached != null) {
+            Log.d(TAG, "Registration unchanged, skipping register");
+            callback.onSuccess(cached);
+            return;
+        }
+        
+        RequestBody body = encode(request, JsonCodec.DEVICE_REQUEST, callback);
+        if (body == null) return;
         
         Request httpRequest = new Request.Builder()
                 .url(url)
                 .post(body)
                 .build();
         
-        client.newCall(httpRequest).enqueue(new Callback() {
+        enqueue(httpRequest, new CallSpec<>(Endpoint.REGISTER, JsonCodec.DEVICE_RESPONSE, "Registration failed", null),
+                rememberRegistration(REGISTER_OPERATION, fingerprint, callback));
+    }
+    
+    // Like guard(), and stores a successful answer in the RegistrationCache first
+    private ApiCallback<DeviceResponse> rememberRegistration(String operation, String fingerprint,
+                                                             ApiCallback<DeviceResponse> callback) {
+        return guardWrapped(callback, new ApiCallback<DeviceResponse>() {
             @Override
-            public void onFailure(Call call, IOException e) {
-                Log.e(TAG, "Register device failed", e);
-                callback.onError("Registration failed: " + e.getMessage());
+            public void onSuccess(DeviceResponse data) {
+                RegistrationCache.getInstance(context).store(operation, fingerprint, data);
+                callback.onSuccess(data);
             }
             
             @Override
-            public void onResponse(Call call, Response response) throws IOException {
-                String responseBody = response.body().string();
-                response.close();
-                
-                if (response.isSuccessful()) {
-                    try {
-                        Type responseType = new TypeToken<ApiResponse<DeviceResponse>>(){}.getType();
-                        ApiResponse<DeviceResponse> apiResponse = gson.fromJson(responseBody, responseType);
-                        if (apiResponse.success) {
-                            callback.onSuccess(apiResponse.data);
-                        } else {
-                            callback.onError(apiResponse.message);
-                        }
-                    } catch (Exception e) {
-                        Log.e(TAG, "Failed to parse device response", e);
-                        Log.e(TAG, "Response body: " + responseBody);
-                        callback.onError("Invalid response format");
-                    }
-                } else {
-                    callback.onError("Server error: " + response.code());
-                }
+            public void onError(String error) {
+                callback.onError(error);
             }
         });
     }
     
-    public void startSession(String deviceId, String packageId, String customerId, ApiCallback<SessionResponse> callback) {
-        String url = baseUrl + "/tv/session/start";
+    private static DeviceRequest registrationRequest(String deviceId, String deviceName) {
+        DeviceRequest request = new DeviceRequest();
+        request.device_id = deviceId;
+        request.device_name = deviceName;
+        request.device_type = "android_tv";
+        request.screen_resolution = "1920x1080";
+        request.os_version = android.os.Build.VERSION.RELEASE;
+        request.app_version = "1.0.0";
+        return request;
+    }
+    
+    // operationId names this purchase (PendingMutations.newOperationId()); pass the same id
+    // to resend it, also after a restart, and the server can recognise the duplicate
+    public void startSession(String operationId, String deviceId, String packageId, String customerId,
+                             ApiCallback<SessionResponse> callback) {
+        String url = apiBase() + "/tv/session/start";
         
         SessionStartRequest request = new SessionStartRequest();
         request.device_id = deviceId;
         request.package_id = packageId;
         request.customer_id = customerId;
         
-        String json = gson.toJson(request);
-        RequestBody body = RequestBody.create(json, JSON);
+        RequestBody body = encode(request, JsonCodec.SESSION_START_REQUEST, callback);
+        if (body == null) return;
+        
+        // Per purchase, not per payload: a second identical purchase is a new operation
+        String operation = "start:" + operationId;
+        String idempotencyKey = PendingMutations.getInstance(context).keyFor(operation);
         
         Request httpRequest = new Request.Builder()
                 .url(url)
+                .header(IDEMPOTENCY_HEADER, idempotencyKey)
                 .post(body)
                 .build();
         
-        client.newCall(httpRequest).enqueue(new Callback() {
-            @Override
-            public void onFailure(Call call, IOException e) {
-                Log.e(TAG, "Start session failed", e);
-                callback.onError("Failed to start session: " + e.getMessage());
-            }
-            
-            @Override
-            public void onResponse(Call call, Response response) throws IOException {
-                String responseBody = response.body().string();
-                response.close();
-                
-                if (response.isSuccessful()) {
-                    try {
-                        ApiResponse<SessionResponse> apiResponse = gson.fromJson(responseBody, ApiResponse.class);
-                        if (apiResponse.success) {
-                            callback.onSuccess(apiResponse.data);
-                        } else {
-                            callback.onError(apiResponse.message);
-                        }
-                    } catch (Exception e) {
-                        callback.onError("Invalid response format");
-                    }
-                } else {
-                    callback.onError("Server error: " + response.code());
-                }
-            }
-        });
+        // Session state changes, don't serve a remembered lookup afterwards
+        sessionLookups.invalidateAll();
+        enqueue(httpRequest, new CallSpec<>(Endpoint.SESSION_START, JsonCodec.SESSION_RESPONSE, "Failed to start session", null)
+                .lane(RequestScheduler.Lane.CRITICAL)
+                .mutation(operation), guard(callback));
     }
     
     public void stopSession(String sessionId, ApiCallback<SessionResponse> callback) {
-        String url = baseUrl + "/tv/session/stop";
+        String url = apiBase() + "/tv/session/stop";
         
         SessionStopRequest request = new SessionStopRequest();
         request.session_id = sessionId;
         
-        String json = gson.toJson(request);
-        RequestBody body = RequestBody.create(json, JSON);
+        RequestBody body = encode(request, JsonCodec.SESSION_STOP_REQUEST, callback);
+        if (body == null) return;
+        
+        // A session is stopped once, so its id names the operation
+        String operation = "stop:" + sessionId;
+        String idempotencyKey = PendingMutations.getInstance(context).keyFor(operation);
         
         Request httpRequest = new Request.Builder()
                 .url(url)
+                .header(IDEMPOTENCY_HEADER, idempotencyKey)
                 .post(body)
                 .build();
         
-        client.newCall(httpRequest).enqueue(new Callback() {
-            @Override
-            public void onFailure(Call call, IOException e) {
-                Log.e(TAG, "Stop session failed", e);
-                callback.onError("Failed to stop session: " + e.getMessage());
-            }
-            
-            @Override
-            public void onResponse(Call call, Response response) throws IOException {
-                String responseBody = response.body().string();
-                response.close();
-                
-                if (response.isSuccessful()) {
-                    try {
-                        ApiResponse<SessionResponse> apiResponse = gson.fromJson(responseBody, ApiResponse.class);
-                        if (apiResponse.success) {
-                            callback.onSuccess(apiResponse.data);
-                        } else {
-                            callback.onError(apiResponse.message);
-                        }
-                    } catch (Exception e) {
-                        callback.onError("Invalid response format");
-                    }
-                } else {
-                    callback.onError("Server error: " + response.code());
-                }
-            }
-        });
+        sessionLookups.invalidateAll();
+        enqueue(httpRequest, new CallSpec<>(Endpoint.SESSION_STOP, JsonCodec.SESSION_RESPONSE, "Failed to stop session", null)
+                .lane(RequestScheduler.Lane.CRITICAL)
+                .mutation(operation), guard(callback));
     }
     
     // Static method for simple session end (used by overlay service)
@@ -316,103 +788,683 @@ public class ApiClient {
     }
     
     public void getActiveSession(String deviceId, SessionCallback callback) {
-        String url = baseUrl + "/tv/active-session/" + deviceId;
+        String url = apiBase() + "/tv/active-session/" + deviceId;
         Log.d(TAG, "Getting active session for device: " + deviceId);
         
-        Request request = new Request.Builder()
-                .url(url)
-                .build();
-        
-        client.newCall(request).enqueue(new Callback() {
+        // Identical lookups that overlap share one request
+        sessionLookups.execute(url, guard(new ApiCallback<SessionResponse>() {
             @Override
-            public void onFailure(Call call, IOException e) {
-                Log.e(TAG, "Get active session failed", e);
-                callback.onError("Failed to get session: " + e.getMessage());
+            public void onSuccess(SessionResponse data) {
+                callback.onSuccess(data);
             }
             
             @Override
-            public void onResponse(Call call, Response response) throws IOException {
-                String responseBody = response.body().string();
-                response.close();
-                
-                if (response.isSuccessful()) {
-                    try {
-                        Type responseType = new TypeToken<ApiResponse<SessionResponse>>(){}.getType();
-                        ApiResponse<SessionResponse> apiResponse = gson.fromJson(responseBody, responseType);
-                        if (apiResponse.success && apiResponse.data != null) {
-                            callback.onSuccess(apiResponse.data);
-                        } else {
-                            callback.onError(apiResponse.message != null ? apiResponse.message : "No active session");
-                        }
-                    } catch (Exception e) {
-                        Log.e(TAG, "Failed to parse session response", e);
-                        Log.e(TAG, "Response body: " + responseBody);
-                        callback.onError("Invalid response format");
-                    }
-                } else {
-                    callback.onError("Server error: " + response.code());
-                }
+            public void onNotModified(SessionResponse data) {
+                callback.onUnchanged(data);
+            }
+            
+            @Override
+            public void onError(String error) {
+                callback.onError(error);
+            }
+        }, callback::onCancelled), done -> {
+            Request.Builder request = new Request.Builder()
+                    .url(url);
+            
+            // Revalidate instead of re-downloading the full session object
+            String etag = sessionValidators.getETag(url);
+            if (etag != null) {
+                request.header("If-None-Match", etag);
             }
+            
+            enqueue(request.build(),
+                    new CallSpec<>(Endpoint.ACTIVE_SESSION, JsonCodec.SESSION_RESPONSE, "Failed to get session", "No active session")
+                            .conditional(sessionValidators)
+                            .binary(),
+                    done);
         });
     }
     
     public void sendHeartbeat(String deviceId, String deviceName, String deviceLocation, ApiCallback<HeartbeatResponse> callback) {
-        String url = baseUrl + "/tv/heartbeat/" + deviceId;
+        String url = apiBase() + "/tv/heartbeat/" + deviceId;
         
-        // Create heartbeat request object for safe JSON serialization
+        // Create heartbeat request object for safe JSON serialization.
+        // Name and location are only included until the server has acknowledged them.
         HeartbeatRequest request = new HeartbeatRequest();
-        request.device_name = deviceName != null ? deviceName.trim() : "";
-        request.device_location = deviceLocation != null ? deviceLocation.trim() : "";
+        heartbeatState.prepare(request,
+                deviceName != null ? deviceName.trim() : "",
+                deviceLocation != null ? deviceLocation.trim() : "");
+        if (shouldAttachMetrics()) {
+            request.metrics = HttpEngine.getInstance().getMetrics().snapshot();
+        }
         
         // Use Gson for safe JSON serialization to avoid control character issues
-        String jsonBody = gson.toJson(request);
-        RequestBody body = RequestBody.create(jsonBody, JSON);
+        RequestBody body = encode(request, JsonCodec.HEARTBEAT_REQUEST, callback);
+        if (body == null) return;
         
-        Request httpRequest = new Request.Builder()
+        Request jsonRequest = new Request.Builder()
                 .url(url)
                 .post(body)
                 .build();
         
-        client.newCall(httpRequest).enqueue(new Callback() {
+        // A heartbeat still waiting in the queue is worthless once a newer one exists
+        CallSpec<HeartbeatResponse> spec = new CallSpec<>(Endpoint.HEARTBEAT, JsonCodec.HEARTBEAT_RESPONSE, "Failed to send heartbeat", "Unknown error")
+                .binary()
+                .lane(RequestScheduler.Lane.TELEMETRY)
+                .coalesce(url);
+        
+        // Servers that already answered in CBOR get a CBOR body; the JSON one is kept for a 415
+        Request httpRequest = jsonRequest;
+        if (CborCodec.isSupported(jsonRequest.url())) {
+            httpRequest = jsonRequest.newBuilder()
+                    .post(CborCodec.write(request, JsonCodec.HEARTBEAT_REQUEST))
+                    .build();
+            spec.fallbackRequest = jsonRequest;
+        }
+        enqueue(httpRequest, spec, guardWrapped(callback, new ApiCallback<HeartbeatResponse>() {
             @Override
-            public void onFailure(Call call, IOException e) {
-                Log.e(TAG, "Heartbeat failed", e);
-                callback.onError("Failed to send heartbeat: " + e.getMessage());
+            public void onSuccess(HeartbeatResponse data) {
+                heartbeatState.onResponse(request, data);
+                callback.onSuccess(data);
             }
             
             @Override
-            public void onResponse(Call call, Response response) throws IOException {
-                String responseBody = response.body().string();
-                response.close();
+            public void onError(String error) {
+                callback.onError(error);
+            }
+        }));
+    }
+    
+    private static synchronized boolean shouldAttachMetrics() {
+        if (++heartbeatsSinceMetrics < METRICS_EVERY_N_HEARTBEATS) {
+            return false;
+        }
+        heartbeatsSinceMetrics = 0;
+        return true;
+    }
+    
+    // Wraps a caller's callback so results of calls issued before the last
+    // base URL change are not delivered. Internal callbacks (single-flight
+    // loaders) are never wrapped, they must always complete.
+    // An ApiFuture passed as callback is cancelled instead of left pending, and
+    // becomes the owner of the call so cancelling it also cancels the HTTP call.
+    private <T> ApiCallback<T> guard(ApiCallback<T> callback) {
+        return guard(callback, null);
+    }
+    
+    private <T> ApiCallback<T> guard(ApiCallback<T> callback, Runnable onDropped) {
+        ApiFuture<?> owner = callback instanceof ApiFuture ? (ApiFuture<?>) callback : null;
+        return new Guarded<>(callback, generation.get(),
+                onDropped == null && owner != null ? owner::cancel : onDropped, owner);
+    }
+    
+    // For internal wrappers around a caller's callback: results go to delivery,
+    // while cancellation and ownership still follow the caller's callback
+    private <T> ApiCallback<T> guardWrapped(ApiCallback<?> caller, ApiCallback<T> delivery) {
+        ApiFuture<?> owner = caller instanceof ApiFuture ? (ApiFuture<?>) caller : null;
+        return new Guarded<>(delivery, generation.get(), owner != null ? owner::cancel : null, owner);
+    }
+    
+    private class Guarded<T> implements ApiCallback<T> {
+        final ApiCallback<T> callback;
+        final int issuedIn;
+        final Runnable onDropped;
+        final ApiFuture<?> owner;
+        
+        Guarded(ApiCallback<T> callback, int issuedIn, Runnable onDropped, ApiFuture<?> owner) {
+            this.callback = callback;
+            this.issuedIn = issuedIn;
+            this.onDropped = onDropped;
+            this.owner = owner;
+        }
+        
+        @Override
+        public void onSuccess(T data) {
+            if (isCurrent(issuedIn, onDropped)) callback.onSuccess(data);
+        }
+        
+        @Override
+        public void onNotModified(T data) {
+            if (isCurrent(issuedIn, onDropped)) callback.onNotModified(data);
+        }
+        
+        @Override
+        public void onError(String error) {
+            if (isCurrent(issuedIn, onDropped)) callback.onError(error);
+        }
+    }
+    
+    private boolean isCurrent(int issuedIn, Runnable onDropped) {
+        if (issuedIn == generation.get()) {
+            return true;
+        }
+        Log.d(TAG, "Dropping late result from generation " + issuedIn);
+        if (onDropped != null) {
+            onDropped.run();
+        }
+        return false;
+    }
+    
+    private <T> RequestBody encode(T request, TypeAdapter<T> adapter, ApiCallback<?> callback) {
+        try {
+            return JsonCodec.write(request, adapter);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to encode request", e);
+            callback.onError("Invalid request: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    // Per-call options for enqueue()
+    private static class CallSpec<T> {
+        final Endpoint endpoint;
+        final EndpointClass endpointClass;
+        final TypeAdapter<ApiResponse<T>> adapter;
+        final String failureMessage;
+        // != null means a success without data is reported as an error
+        final String missingDataMessage;
+        // != null means the request is a conditional GET backed by this cache
+        ValidatorCache<T> validators;
+        // Carries an Idempotency-Key; retried only where the server deduplicates
+        boolean mutation;
+        // PendingMutations entry holding that key, cleared by a successful answer
+        String pendingOperation;
+        RequestScheduler.Lane lane = RequestScheduler.Lane.NORMAL;
+        // Telemetry with the same key replaces an older queued call
+        String coalesceKey;
+        // elapsedRealtime() by which the caller must have an answer, spans all retries
+        long deadlineAt;
+        // != null: the request is sent gzipped and/or as CBOR, this is the plain JSON version for a 415 fallback
+        Request fallbackRequest;
+        // Offer CBOR in Accept; the response Content-Type picks the decoder
+        boolean binary;
+        // != null: run instead of reporting an error when the server lacks the endpoint
+        Runnable onUnsupported;
+        // ApiClient generation the call was issued in
+        int generation;
+        // != null: future whose cancellation or timeout aborts the call
+        ApiFuture<?> owner;
+        
+        CallSpec(Endpoint endpoint, TypeAdapter<ApiResponse<T>> adapter, String failureMessage,
+                 String missingDataMessage) {
+            this.endpoint = endpoint;
+            this.endpointClass = endpoint.getEndpointClass();
+            this.adapter = adapter;
+            this.failureMessage = failureMessage;
+            this.missingDataMessage = missingDataMessage;
+        }
+        
+        CallSpec<T> conditional(ValidatorCache<T> validators) {
+            this.validators = validators;
+            return this;
+        }
+        
+        CallSpec<T> mutation(String operation) {
+            this.mutation = true;
+            this.pendingOperation = operation;
+            return this;
+        }
+        
+        CallSpec<T> unsupported(Runnable fallback) {
+            this.onUnsupported = fallback;
+            return this;
+        }
+        
+        CallSpec<T> binary() {
+            this.binary = true;
+            return this;
+        }
+        
+        CallSpec<T> lane(RequestScheduler.Lane lane) {
+            this.lane = lane;
+            return this;
+        }
+        
+        CallSpec<T> coalesce(String coalesceKey) {
+            this.coalesceKey = coalesceKey;
+            return this;
+        }
+    }
+    
+    // Common entry point for calls that return the ApiResponse envelope
+    @SuppressWarnings("unchecked")
+    private <T> void enqueue(Request request, CallSpec<T> spec, ApiCallback<T> callback) {
+        Resilience.getInstance().getRetryBudget(spec.endpointClass).onRequest();
+        spec.deadlineAt = SystemClock.elapsedRealtime() + spec.endpoint.getDeadlineMillis();
+        spec.generation = generation.get();
+        if (callback instanceof Guarded) {
+            spec.owner = ((Guarded<T>) callback).owner;
+        }
+        if (spec.binary) {
+            request = request.newBuilder().header("Accept", CborCodec.ACCEPT).build();
+            if (spec.fallbackRequest != null) {
+                spec.fallbackRequest = spec.fallbackRequest.newBuilder().header("Accept", CborCodec.ACCEPT).build();
+            }
+        }
+        // Larger bodies go out gzipped; the plain request is kept in case the server refuses
+        Request wireRequest = RequestCompressor.getInstance().compress(request);
+        if (wireRequest != request && spec.fallbackRequest == null) {
+            spec.fallbackRequest = request;
+        }
+        attempt(wireRequest, spec, callback, 0, 0);
+    }
+    
+    // One attempt of a call. Failures are retried with decorrelated-jitter backoff
+    // while the retry policy and budget allow, and feed the endpoint's circuit breaker.
+    // The body is decoded straight from the network stream with a pre-resolved adapter.
+    private <T> void attempt(Request issued, CallSpec<T> spec, ApiCallback<T> callback,
+                             int retry, long previousDelay) {
+        // A retry scheduled before a failover goes to the new backend
+        BackendSelector selector = BackendSelector.peek();
+        Request request = followBackends && selector != null ? selector.reroute(issued) : issued;
+        String url = request.url().toString();
+        CircuitBreaker breaker = Resilience.getInstance().getCircuitBreaker(spec.endpointClass);
+        
+        if (spec.generation != generation.get()) {
+            // A retry scheduled before the base URL changed
+            callback.onError(CANCELLED_MESSAGE);
+            return;
+        }
+        if (spec.owner != null && spec.owner.isDone()) {
+            // Caller cancelled or timed out the future, nobody is waiting
+            return;
+        }
+        
+        // The server asked this class to back off. Checked before the breaker, which
+        // would otherwise hand out its half-open probe to a call that is never sent.
+        long holdMillis = Resilience.getInstance().getBackpressure(spec.endpointClass).getRemainingMillis();
+        if (holdMillis > 0) {
+            Log.w(TAG, "Holding " + request.url().encodedPath() + " for another " + holdMillis + "ms");
+            callback.onError(BUSY_MESSAGE);
+            return;
+        }
+        
+        if (breaker != null && !breaker.allowRequest()) {
+            Log.w(TAG, "Circuit open for " + spec.endpointClass + ", skipping " + request.url().encodedPath());
+            callback.onError("Server recovering, please wait");
+            return;
+        }
+        
+        // Retries spend from the same budget: they hit the backend just the same.
+        // Checked after the breaker so an open circuit doesn't drain the bucket.
+        if (!admit(spec.endpoint, spec.mutation)) {
+            if (breaker != null) breaker.release();
+            callback.onError(SHED_MESSAGE);
+            return;
+        }
+        
+        dispatch(spec.endpoint, spec.lane, spec.coalesceKey, request, spec.deadlineAt, spec.generation, spec.owner, new Exchange.Callback() {
+            @Override
+            public void onFailure(IOException e) {
+                if (spec.generation != generation.get()) {
+                    // Cancelled by setBaseUrl(), says nothing about the server's health
+                    if (breaker != null) breaker.release();
+                    callback.onError(CANCELLED_MESSAGE);
+                    return;
+                }
+                if (spec.owner != null && spec.owner.isDone()) {
+                    // Future cancelled or timed out by the caller
+                    if (breaker != null) breaker.release();
+                    return;
+                }
+                if (breaker != null) breaker.onFailure();
                 
-                if (response.isSuccessful()) {
-                    try {
-                        Log.d(TAG, "Heartbeat response body: " + responseBody);
-                        Type responseType = new TypeToken<ApiResponse<HeartbeatResponse>>(){}.getType();
-                        ApiResponse<HeartbeatResponse> apiResponse = gson.fromJson(responseBody, responseType);
-                        if (apiResponse.success && apiResponse.data != null) {
-                            callback.onSuccess(apiResponse.data);
+                if (scheduleRetry(request, spec, callback, retry, previousDelay)) {
+                    Log.w(TAG, spec.failureMessage + ", retrying: " + e.getMessage());
+                    return;
+                }
+                Log.e(TAG, spec.failureMessage, e);
+                callback.onError(spec.failureMessage + ": " + e.getMessage());
+            }
+            
+            @Override
+            public void onResponse(Response response) {
+                try (ResponseBody body = response.body()) {
+                    if (response.code() == 415 && spec.fallbackRequest != null) {
+                        // Server can't read this body: resend plain JSON, not counted as a retry.
+                        // CBOR is the likelier culprit when both were applied.
+                        if (CborCodec.isCbor(request)) {
+                            CborCodec.markUnsupported(request.url());
                         } else {
-                            callback.onError(apiResponse.message != null ? apiResponse.message : "Unknown error");
+                            RequestCompressor.getInstance().onUnsupported(request.url());
+                        }
+                        Request fallback = spec.fallbackRequest;
+                        spec.fallbackRequest = null;
+                        // The resend asks the breaker again; it must not find this call's probe still taken
+                        if (breaker != null) breaker.release();
+                        attempt(fallback, spec, callback, retry, previousDelay);
+                        return;
+                    }
+                    
+                    recordRetryAfter(spec.endpointClass, response);
+                    if (response.code() == 429) {
+                        // Alive but throttling us: neither a success nor a failure for the breaker
+                        if (breaker != null) breaker.release();
+                        Log.w(TAG, "HTTP 429 for " + request.url().encodedPath());
+                        callback.onError(BUSY_MESSAGE);
+                        return;
+                    }
+                    
+                    if (spec.mutation) {
+                        recordDeduplication(request, response);
+                    }
+                    
+                    if (response.code() >= 500) {
+                        if (breaker != null) breaker.onFailure();
+                        if (isRetryableStatus(response.code())
+                                && scheduleRetry(request, spec, callback, retry, previousDelay)) {
+                            Log.w(TAG, "HTTP " + response.code() + " for " + request.url().encodedPath() + ", retrying");
+                            return;
                         }
+                    } else if (breaker != null) {
+                        breaker.onSuccess();
+                    }
+                    
+                    if (response.code() == 304 && spec.validators != null) {
+                        ApiResponse<T> cached = spec.validators.notModified(url);
+                        if (cached != null) {
+                            Log.d(TAG, "Not modified: " + request.url().encodedPath());
+                            deliver(cached, spec, true, callback);
+                            return;
+                        }
+                    }
+                    
+                    if (response.code() == 404 && spec.endpoint == Endpoint.HEARTBEAT) {
+                        // "Device not found": the server lost the device row, register again next launch
+                        RegistrationCache.getInstance(context).clear();
+                    }
+                    
+                    if (spec.onUnsupported != null && isUnsupportedStatus(response.code())) {
+                        spec.onUnsupported.run();
+                        return;
+                    }
+                    
+                    if (!response.isSuccessful()) {
+                        Log.e(TAG, "HTTP error " + response.code() + " for " + request.url().encodedPath());
+                        callback.onError("Server error: " + response.code());
+                        return;
+                    }
+                    
+                    if (spec.pendingOperation != null) {
+                        // Applied; a later attempt of this operation would be a new mutation
+                        PendingMutations.getInstance(context).complete(spec.pendingOperation);
+                    }
+                    
+                    ApiResponse<T> apiResponse;
+                    try {
+                        apiResponse = decode(body, spec, request.url());
                     } catch (Exception e) {
-                        Log.e(TAG, "Failed to parse heartbeat response", e);
-                        Log.e(TAG, "Response body was: " + responseBody);
-                        callback.onError("Invalid response format: " + e.getMessage());
+                        Log.e(TAG, "Failed to parse response from " + request.url().encodedPath(), e);
+                        callback.onError("Invalid response format");
+                        return;
                     }
-                } else {
-                    Log.e(TAG, "Heartbeat HTTP error: " + response.code() + " - " + responseBody);
-                    callback.onError("Server error: " + response.code());
+                    
+                    if (apiResponse == null) {
+                        callback.onError("Invalid response format");
+                        return;
+                    }
+                    
+                    if (spec.validators != null) {
+                        spec.validators.store(url, response.header("ETag"), apiResponse);
+                    }
+                    recordIntervalHint(spec.endpointClass, apiResponse);
+                    deliver(apiResponse, spec, false, callback);
+                }
+            }
+        }, () -> {
+            // Replaced in the queue before it was sent
+            if (breaker != null) breaker.release();
+            callback.onError("Superseded by a newer request");
+        });
+    }
+    
+    // Binary-capable calls decode by Content-Type; a CBOR answer also unlocks CBOR request bodies
+    private <T> ApiResponse<T> decode(ResponseBody body, CallSpec<T> spec, HttpUrl url) throws IOException {
+        if (spec.binary && CborCodec.isCbor(body.contentType())) {
+            if (!CborCodec.isSupported(url)) {
+                Log.i(TAG, "Server speaks CBOR, switching " + url.host() + " to binary bodies");
+                CborCodec.markSupported(url);
+            }
+            return CborCodec.read(body, spec.adapter);
+        }
+        return JsonCodec.read(body, spec.adapter);
+    }
+    
+    // Hands the call to OkHttp once the priority scheduler grants a slot for its lane.
+    // Whatever is left of the deadline at that point becomes the call timeout and is
+    // sent to the server; a call that expired while queued is failed without being sent.
+    // The endpoint tag lets the HttpEngine event listener attribute phase timings.
+    private void dispatch(Endpoint endpoint, RequestScheduler.Lane lane, String coalesceKey, Request request, long deadlineAt,
+                          int issuedIn, ApiFuture<?> owner, Exchange.Callback callback, Runnable onDropped) {
+        HttpEngine engine = HttpEngine.getInstance();
+        RequestScheduler scheduler = engine.getRequestScheduler();
+        scheduler.submit(lane, coalesceKey, new RequestScheduler.Task() {
+            @Override
+            public void start() {
+                send();
+            }
+            
+            private void send() {
+                long remaining = deadlineAt - SystemClock.elapsedRealtime();
+                Request tagged = request.newBuilder()
+                        .header(DEADLINE_HEADER, String.valueOf(Math.max(0, remaining)))
+                        .tag(Endpoint.class, endpoint)
+                        .build();
+                if (issuedIn != generation.get() || (owner != null && owner.isDone())) {
+                    // Base URL changed, or the future was cancelled, while the call was queued
+                    try {
+                        callback.onFailure(new IOException("Canceled"));
+                    } finally {
+                        scheduler.finish(lane);
+                    }
+                    return;
+                }
+                
+                if (remaining <= 0) {
+                    Log.w(TAG, "Deadline expired before sending " + request.url().encodedPath());
+                    try {
+                        callback.onFailure(new InterruptedIOException("deadline exceeded"));
+                    } finally {
+                        scheduler.finish(lane);
+                    }
+                    return;
+                }
+                
+                // Over the existing WebSocket when the server offers it, otherwise HTTP.
+                // Either way the deadline cancels the exchange, including a body still being read.
+                SocketRpc rpc = SocketRpc.getInstance();
+                OkHttpClient selected = engine.clientFor(tagged.url());
+                boolean overSocket = rpc.canCarry(endpoint, tagged);
+                Exchange exchange = overSocket
+                        ? rpc.newExchange(tagged, remaining)
+                        : new Exchange.Http(selected.newCall(tagged), remaining);
+                activeCalls.add(exchange);
+                if (issuedIn != generation.get()) {
+                    // setBaseUrl() ran between the check above and registering the call
+                    exchange.cancel();
+                }
+                if (owner != null) {
+                    owner.onCancel(exchange::cancel);
                 }
+                long sentAt = SystemClock.elapsedRealtime();
+                exchange.enqueue(new Exchange.Callback() {
+                    @Override
+                    public void onFailure(IOException e) {
+                        activeCalls.remove(exchange);
+                        // Socket dropped or timed out: resend over HTTP, keeping the slot.
+                        // canCarry() only lets mutations onto the socket for servers that deduplicate them.
+                        if (overSocket && !exchange.isCanceled()) {
+                            rpc.onExchangeFailed(e);
+                            send();
+                            return;
+                        }
+                        // Server doesn't speak h2c: resend right away over HTTP/1.1, keeping the slot
+                        if (!overSocket && engine.isPriorKnowledge(selected) && !exchange.isCanceled()
+                                && engine.onPriorKnowledgeFailure(tagged.url(), e)) {
+                            send();
+                            return;
+                        }
+                        // A call timeout also reports as canceled; only our own cancellations say nothing about the server
+                        if (issuedIn == generation.get() && (owner == null || !owner.isDone())) {
+                            recordBackendResult(tagged.url(), false, -1);
+                        }
+                        try {
+                            callback.onFailure(e);
+                        } finally {
+                            scheduler.finish(lane);
+                        }
+                    }
+                    
+                    @Override
+                    public void onResponse(Response response) throws IOException {
+                        activeCalls.remove(exchange);
+                        if (!overSocket && engine.isPriorKnowledge(selected)) {
+                            engine.onPriorKnowledgeSuccess(tagged.url());
+                        }
+                        // 501 is a missing endpoint (e.g. /tv/batch), not a sick server
+                        boolean healthy = response.code() < 500 || response.code() == 501;
+                        recordBackendResult(tagged.url(), healthy, SystemClock.elapsedRealtime() - sentAt);
+                        // Slot is held until the body has been consumed
+                        try {
+                            callback.onResponse(response);
+                        } finally {
+                            scheduler.finish(lane);
+                        }
+                    }
+                });
+            }
+            
+            @Override
+            public void dropped() {
+                onDropped.run();
             }
         });
     }
     
+    // Passive health scoring for failover: time to response headers and outcome
+    private static void recordBackendResult(HttpUrl url, boolean success, long latencyMillis) {
+        BackendSelector selector = BackendSelector.peek();
+        if (selector != null) {
+            selector.onResult(url, success, latencyMillis);
+        }
+    }
+    
+    // 429 and 503 may carry Retry-After as delta-seconds or an HTTP date
+    private static void recordRetryAfter(EndpointClass endpointClass, Response response) {
+        if (response.code() != 429 && response.code() != 503) {
+            return;
+        }
+        String value = response.header("Retry-After");
+        if (value == null) {
+            return;
+        }
+        long millis;
+        try {
+            millis = Long.parseLong(value.trim()) * 1000;
+        } catch (NumberFormatException e) {
+            Date date = response.headers().getDate("Retry-After");
+            if (date == null) {
+                Log.w(TAG, "Ignoring malformed Retry-After: " + value);
+                return;
+            }
+            millis = date.getTime() - System.currentTimeMillis();
+        }
+        Resilience.getInstance().getBackpressure(endpointClass).onRetryAfter(millis);
+    }
+    
+    // Heartbeats carry their own hint in the payload, everything else in the envelope
+    private static void recordIntervalHint(EndpointClass endpointClass, ApiResponse<?> apiResponse) {
+        long hint = apiResponse.poll_interval_ms;
+        if (apiResponse.data instanceof HeartbeatResponse && ((HeartbeatResponse) apiResponse.data).heartbeat_interval_ms > 0) {
+            hint = ((HeartbeatResponse) apiResponse.data).heartbeat_interval_ms;
+        }
+        Resilience.getInstance().getBackpressure(endpointClass).onIntervalHint(hint);
+    }
+    
+    private static boolean admit(Endpoint endpoint, boolean essential) {
+        if (Resilience.getInstance().getRateLimit(endpoint.getEndpointClass()).tryAcquire(essential)) {
+            return true;
+        }
+        Log.w(TAG, "Request budget exhausted, shedding " + endpoint);
+        return false;
+    }
+    
+    // The server echoes the key it deduplicated the request by
+    private static void recordDeduplication(Request request, Response response) {
+        String sent = request.header(IDEMPOTENCY_HEADER);
+        if (sent != null && sent.equals(response.header(IDEMPOTENCY_HEADER))
+                && deduplicatingHosts.add(hostKey(request.url()))) {
+            Log.i(TAG, request.url().host() + " deduplicates mutations, enabling retries");
+        }
+    }
+    
+    static boolean isDeduplicating(HttpUrl url) {
+        return deduplicatingHosts.contains(hostKey(url));
+    }
+    
+    private static String hostKey(HttpUrl url) {
+        return url.host() + ":" + url.port();
+    }
+    
+    // An older server without the endpoint
+    private static boolean isUnsupportedStatus(int code) {
+        return code == 404 || code == 405 || code == 501;
+    }
+    
+    private static boolean isRetryableStatus(int code) {
+        return code == 502 || code == 503 || code == 504;
+    }
+    
+    private <T> boolean scheduleRetry(Request request, CallSpec<T> spec, ApiCallback<T> callback,
+                                      int retry, long previousDelay) {
+        Resilience resilience = Resilience.getInstance();
+        RetryPolicy policy = resilience.getRetryPolicy(spec.endpointClass);
+        if (spec.mutation) {
+            // A resend to a server that doesn't deduplicate could start or bill a session twice
+            policy = isDeduplicating(request.url()) ? MUTATION_RETRY_POLICY : RetryPolicy.NONE;
+        }
+        if (retry >= policy.getMaxRetries()) {
+            return false;
+        }
+        
+        // Never earlier than the server's Retry-After
+        long delay = Math.max(resilience.nextDelayMillis(policy, previousDelay),
+                resilience.getBackpressure(spec.endpointClass).getRemainingMillis());
+        // No point retrying if the answer would arrive after the caller stopped caring
+        if (SystemClock.elapsedRealtime() + delay >= spec.deadlineAt) {
+            Log.w(TAG, "No deadline left to retry " + spec.endpoint);
+            return false;
+        }
+        if (!resilience.getRetryBudget(spec.endpointClass).tryAcquireRetry()) {
+            Log.w(TAG, "Retry budget exhausted for " + spec.endpointClass);
+            return false;
+        }
+        HttpEngine.getInstance().getScheduler().schedule(
+                () -> attempt(request, spec, callback, retry + 1, delay), delay, TimeUnit.MILLISECONDS);
+        return true;
+    }
+    
+    private static <T> void deliver(ApiResponse<T> apiResponse, CallSpec<T> spec, boolean notModified,
+                                    ApiCallback<T> callback) {
+        if (apiResponse.success && (spec.missingDataMessage == null || apiResponse.data != null)) {
+            if (notModified) {
+                callback.onNotModified(apiResponse.data);
+            } else {
+                callback.onSuccess(apiResponse.data);
+            }
+        } else {
+            callback.onError(apiResponse.message != null ? apiResponse.message
+                    : (spec.missingDataMessage != null ? spec.missingDataMessage : "Unknown error"));
+        }
+    }
+    
     // Data classes
     public static class ApiResponse<T> {
         public boolean success;
         public String message;
         public T data;
+        // Optional server hint for how often to poll this endpoint, 0 = none
+        public long poll_interval_ms;
     }
     
     public static class DeviceRequest {
@@ -431,6 +1483,8 @@ public class ApiClient {
         public String device_name;
         public String status;
         public String created_at;
+        // Optional: how long the client may skip re-registering an unchanged identity
+        public long registration_ttl_seconds;
     }
     
     public static class SessionStartRequest {
@@ -458,13 +1512,67 @@ public class ApiClient {
     }
     
     public static class HeartbeatRequest {
+        // Bumped whenever name or location change; a beat without them is a liveness ping
+        public long state_version;
+        // Only present until the server has acknowledged this state_version
         public String device_name;
         public String device_location;
+        // Only present on every Nth heartbeat
+        public List<PhaseMetrics> metrics;
+    }
+    
+    public static class PhaseMetrics {
+        public String endpoint;
+        public String phase;
+        public long count;
+        public long p50;
+        public long p95;
+        public long p99;
+        public long max;
+    }
+    
+    public static class BatchRequest {
+        public List<BatchOperation> operations;
+    }
+    
+    public static class BatchOperation {
+        public String id;
+        public String method;
+        // Relative to the API base URL, e.g. /tv/register
+        public String path;
+        public JsonElement body;
+    }
+    
+    public static class BatchResponse {
+        public List<BatchResult> results;
+    }
+    
+    public static class BatchResult {
+        public String id;
+        public int status;
+        // The endpoint's usual ApiResponse envelope
+        public JsonElement body;
     }
     
     public static class HeartbeatResponse {
         public boolean success;
         public String message;
         public String timestamp;
+        // Optional server hint for the heartbeat period, 0 = none
+        public long heartbeat_interval_ms;
+        // Server wants name and location again on the next beat
+        public boolean resync;
+        // Device state version the server holds, 0 = not reported
+        public long state_version;
+        // Compact view of the device's session; null when the server does not send one
+        public SessionDigest session;
+    }
+    
+    public static class SessionDigest {
+        // 0 = no active session
+        public int session_id;
+        public int remaining_seconds;
+        // Bumped by the server on start, stop and time changes
+        public long version;
     }
 }
\ No newline at end of file
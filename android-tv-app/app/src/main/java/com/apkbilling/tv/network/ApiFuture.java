@@ -0,0 +1,324 @@
+package com.apkbilling.tv.network;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+// Result of an asynchronous ApiClient call that can be composed, cancelled and
+// given a timeout. A small stand-in for CompletableFuture, which isn't available
+// at minSdk 21. Errors are plain messages, like everywhere else in ApiClient.
+//
+// The future is itself an ApiCallback, so it can be handed to any callback-based
+// ApiClient method. Listeners run on the completing thread unless an executor is
+// given, e.g. ApiFuture.mainThread() for UI updates.
+public class ApiFuture<T> implements ApiClient.ApiCallback<T> {
+    private static final String TAG = "ApiFuture";
+
+    public static final String CANCELLED_MESSAGE = "Cancelled";
+
+    public interface Function<A, B> {
+        B apply(A value);
+    }
+
+    private enum State {
+        PENDING, SUCCEEDED, FAILED, CANCELLED
+    }
+
+    private static final Executor DIRECT = Runnable::run;
+    private static volatile Executor mainThread;
+
+    private State state = State.PENDING;
+    private T value;
+    private String error;
+    // Cancelled or timed out, as opposed to completed by the call itself
+    private boolean aborted = false;
+    private final List<Runnable> listeners = new ArrayList<>();
+    // Run on cancel or timeout, e.g. to cancel the underlying HTTP call
+    private final List<Runnable> cancelHooks = new ArrayList<>();
+
+    public static Executor mainThread() {
+        if (mainThread == null) {
+            Handler handler = new Handler(Looper.getMainLooper());
+            mainThread = handler::post;
+        }
+        return mainThread;
+    }
+
+    public static <T> ApiFuture<T> completed(T value) {
+        ApiFuture<T> future = new ApiFuture<>();
+        future.onSuccess(value);
+        return future;
+    }
+
+    public static <T> ApiFuture<T> failed(String error) {
+        ApiFuture<T> future = new ApiFuture<>();
+        future.onError(error);
+        return future;
+    }
+
+    // Completion, via the ApiCallback interface. Only the first outcome counts.
+
+    @Override
+    public void onSuccess(T data) {
+        finish(State.SUCCEEDED, data, null, false);
+    }
+
+    @Override
+    public void onError(String error) {
+        finish(State.FAILED, null, error, false);
+    }
+
+    public boolean cancel() {
+        return finish(State.CANCELLED, null, CANCELLED_MESSAGE, true);
+    }
+
+    // Fails the future if it isn't done within the given time, and cancels the work behind it
+    public ApiFuture<T> timeout(long timeout, TimeUnit unit) {
+        HttpEngine.getInstance().getScheduler().schedule(() -> {
+            if (finish(State.FAILED, null, "Timed out after " + unit.toMillis(timeout) + " ms", true)) {
+                Log.d(TAG, "Future timed out");
+            }
+        }, timeout, unit);
+        return this;
+    }
+
+    private boolean finish(State newState, T newValue, String newError, boolean runCancelHooks) {
+        List<Runnable> hooks;
+        List<Runnable> toNotify;
+        synchronized (this) {
+            if (state != State.PENDING) {
+                return false;
+            }
+            state = newState;
+            value = newValue;
+            error = newError;
+            aborted = runCancelHooks;
+            hooks = runCancelHooks ? new ArrayList<>(cancelHooks) : new ArrayList<>();
+            cancelHooks.clear();
+            toNotify = new ArrayList<>(listeners);
+            listeners.clear();
+        }
+        for (Runnable hook : hooks) {
+            hook.run();
+        }
+        for (Runnable listener : toNotify) {
+            listener.run();
+        }
+        return true;
+    }
+
+    // Registers work to abort when the future is cancelled or times out;
+    // runs right away if that already happened
+    public void onCancel(Runnable hook) {
+        synchronized (this) {
+            if (state == State.PENDING) {
+                cancelHooks.add(hook);
+                return;
+            }
+            if (!aborted) {
+                return;
+            }
+        }
+        hook.run();
+    }
+
+    // State
+
+    public synchronized boolean isDone() {
+        return state != State.PENDING;
+    }
+
+    public synchronized boolean isSuccess() {
+        return state == State.SUCCEEDED;
+    }
+
+    public synchronized boolean isCancelled() {
+        return state == State.CANCELLED;
+    }
+
+    // The value if the future succeeded, null otherwise
+    public synchronized T getNow() {
+        return value;
+    }
+
+    // The error message if the future failed or was cancelled, null otherwise
+    public synchronized String getError() {
+        return error;
+    }
+
+    // Listeners
+
+    public ApiFuture<T> whenComplete(ApiClient.ApiCallback<T> callback) {
+        return whenComplete(DIRECT, callback);
+    }
+
+    // Delivers the outcome on the given executor; a cancelled future reports onError(CANCELLED_MESSAGE)
+    public ApiFuture<T> whenComplete(Executor executor, ApiClient.ApiCallback<T> callback) {
+        Runnable listener = () -> executor.execute(() -> {
+            if (isSuccess()) {
+                callback.onSuccess(getNow());
+            } else {
+                callback.onError(getError());
+            }
+        });
+        synchronized (this) {
+            if (state == State.PENDING) {
+                listeners.add(listener);
+                return this;
+            }
+        }
+        listener.run();
+        return this;
+    }
+
+    // Composition. Cancelling a derived future cancels the one it came from.
+
+    public <R> ApiFuture<R> thenApply(Function<? super T, ? extends R> function) {
+        ApiFuture<R> next = new ApiFuture<>();
+        next.onCancel(this::cancel);
+        whenComplete(new ApiClient.ApiCallback<T>() {
+            @Override
+            public void onSuccess(T data) {
+                R result;
+                try {
+                    result = function.apply(data);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "thenApply function failed", e);
+                    next.onError(e.getMessage());
+                    return;
+                }
+                next.onSuccess(result);
+            }
+
+            @Override
+            public void onError(String error) {
+                propagateError(next, error);
+            }
+        });
+        return next;
+    }
+
+    public <R> ApiFuture<R> thenCompose(Function<? super T, ApiFuture<R>> function) {
+        ApiFuture<R> next = new ApiFuture<>();
+        next.onCancel(this::cancel);
+        whenComplete(new ApiClient.ApiCallback<T>() {
+            @Override
+            public void onSuccess(T data) {
+                ApiFuture<R> inner;
+                try {
+                    inner = function.apply(data);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "thenCompose function failed", e);
+                    next.onError(e.getMessage());
+                    return;
+                }
+                next.onCancel(inner::cancel);
+                inner.whenComplete(new ApiClient.ApiCallback<R>() {
+                    @Override
+                    public void onSuccess(R result) {
+                        next.onSuccess(result);
+                    }
+
+                    @Override
+                    public void onError(String error) {
+                        propagateError(next, error);
+                    }
+                });
+            }
+
+            @Override
+            public void onError(String error) {
+                propagateError(next, error);
+            }
+        });
+        return next;
+    }
+
+    // Turns a failure into a value, e.g. "no active session" into null
+    public ApiFuture<T> recover(Function<String, ? extends T> function) {
+        ApiFuture<T> next = new ApiFuture<>();
+        next.onCancel(this::cancel);
+        whenComplete(new ApiClient.ApiCallback<T>() {
+            @Override
+            public void onSuccess(T data) {
+                next.onSuccess(data);
+            }
+
+            @Override
+            public void onError(String error) {
+                if (isCancelled()) {
+                    next.cancel();
+                    return;
+                }
+                next.onSuccess(function.apply(error));
+            }
+        });
+        return next;
+    }
+
+    private void propagateError(ApiFuture<?> next, String error) {
+        if (isCancelled()) {
+            next.cancel();
+        } else {
+            next.onError(error);
+        }
+    }
+
+    // Succeeds when every future succeeded; fails with the first error
+    public static ApiFuture<Void> allOf(ApiFuture<?>... futures) {
+        ApiFuture<Void> all = new ApiFuture<>();
+        join(all, futures, true);
+        return all;
+    }
+
+    // Succeeds once every future is done, whatever the outcome; inspect each one afterwards
+    public static ApiFuture<Void> allSettled(ApiFuture<?>... futures) {
+        ApiFuture<Void> all = new ApiFuture<>();
+        join(all, futures, false);
+        return all;
+    }
+
+    private static void join(ApiFuture<Void> all, ApiFuture<?>[] futures, boolean failFast) {
+        all.onCancel(() -> {
+            for (ApiFuture<?> future : futures) {
+                future.cancel();
+            }
+        });
+        if (futures.length == 0) {
+            all.onSuccess(null);
+            return;
+        }
+
+        int[] remaining = {futures.length};
+        for (ApiFuture<?> future : futures) {
+            future.whenDone(() -> {
+                if (failFast && !future.isSuccess()) {
+                    all.onError(future.getError());
+                    return;
+                }
+                boolean last;
+                synchronized (remaining) {
+                    last = --remaining[0] == 0;
+                }
+                if (last) {
+                    all.onSuccess(null);
+                }
+            });
+        }
+    }
+
+    private void whenDone(Runnable runnable) {
+        synchronized (this) {
+            if (state == State.PENDING) {
+                listeners.add(runnable);
+                return;
+            }
+        }
+        runnable.run();
+    }
+}
@@ -0,0 +1,966 @@
+package com.apkbilling.tv.network;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+// Reflection-free adapters for the ApiClient data classes.
+// Hand-written in the shape an annotation processor would generate: one switch over
+// the JSON field names per class, no Field lookups and no Unsafe allocation.
+// Keep these in sync when a field is added to a data class in ApiClient;
+// ApiTypeAdaptersTest compares them against Gson's reflective adapters.
+//
+// Values are as strict as Gson's own adapters (a malformed value is a
+// JsonSyntaxException, never a silent 0) with one exception: PostgreSQL NUMERIC
+// columns (e.g. remaining_minutes) come back as strings like "42.5", which are
+// truncated to the integer field instead of rejected.
+public final class ApiTypeAdapters {
+
+    public static final TypeAdapterFactory FACTORY = new TypeAdapterFactory() {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
+            Class<? super T> rawType = typeToken.getRawType();
+
+            if (rawType == ApiClient.ApiResponse.class) {
+                Type dataType = Object.class;
+                if (typeToken.getType() instanceof ParameterizedType) {
+                    dataType = ((ParameterizedType) typeToken.getType()).getActualTypeArguments()[0];
+                }
+                return (TypeAdapter<T>) new ApiResponseAdapter<>(gson.getAdapter(TypeToken.get(dataType)));
+            }
+            if (rawType == ApiClient.DeviceRequest.class) {
+                return (TypeAdapter<T>) new DeviceRequestAdapter();
+            }
+            if (rawType == ApiClient.DeviceResponse.class) {
+                return (TypeAdapter<T>) new DeviceResponseAdapter();
+            }
+            if (rawType == ApiClient.SessionStartRequest.class) {
+                return (TypeAdapter<T>) new SessionStartRequestAdapter();
+            }
+            if (rawType == ApiClient.SessionStopRequest.class) {
+                return (TypeAdapter<T>) new SessionStopRequestAdapter();
+            }
+            if (rawType == ApiClient.SessionResponse.class) {
+                return (TypeAdapter<T>) new SessionResponseAdapter();
+            }
+            if (rawType == ApiClient.HeartbeatRequest.class) {
+                return (TypeAdapter<T>) new HeartbeatRequestAdapter();
+            }
+            if (rawType == ApiClient.PhaseMetrics.class) {
+                return (TypeAdapter<T>) PHASE_METRICS;
+            }
+            if (rawType == ApiClient.HeartbeatResponse.class) {
+                return (TypeAdapter<T>) new HeartbeatResponseAdapter(gson.getAdapter(ApiClient.SessionDigest.class));
+            }
+            if (rawType == ApiClient.SessionDigest.class) {
+                return (TypeAdapter<T>) new SessionDigestAdapter();
+            }
+            if (rawType == ApiClient.BatchRequest.class) {
+                return (TypeAdapter<T>) new BatchRequestAdapter(gson.getAdapter(ApiClient.BatchOperation.class));
+            }
+            if (rawType == ApiClient.BatchOperation.class) {
+                return (TypeAdapter<T>) new BatchOperationAdapter(gson.getAdapter(JsonElement.class));
+            }
+            if (rawType == ApiClient.BatchResponse.class) {
+                return (TypeAdapter<T>) new BatchResponseAdapter(gson.getAdapter(ApiClient.BatchResult.class));
+            }
+            if (rawType == ApiClient.BatchResult.class) {
+                return (TypeAdapter<T>) new BatchResultAdapter(gson.getAdapter(JsonElement.class));
+            }
+            return null;
+        }
+    };
+
+    private static final PhaseMetricsAdapter PHASE_METRICS = new PhaseMetricsAdapter();
+
+    private ApiTypeAdapters() {
+    }
+
+    // Primitive readers
+
+    static String readString(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        if (token == JsonToken.BOOLEAN) {
+            return String.valueOf(in.nextBoolean());
+        }
+        if (token != JsonToken.STRING && token != JsonToken.NUMBER) {
+            throw new JsonSyntaxException("Expected a string but was " + token + " at path " + in.getPath());
+        }
+        return in.nextString();
+    }
+
+    // A JSON null leaves the field at 0, as Gson does for primitive fields
+    static int readInt(JsonReader in) throws IOException {
+        if (!peekNumber(in)) {
+            return 0;
+        }
+        try {
+            return in.nextInt();
+        } catch (NumberFormatException e) {
+            // Not an integral int; the reader still holds the value as a string
+            String value = in.nextString();
+            double number = parseDouble(value, in);
+            if (number < Integer.MIN_VALUE || number > Integer.MAX_VALUE) {
+                throw new JsonSyntaxException("Expected an int but was " + value + " at path " + in.getPreviousPath());
+            }
+            return (int) number;
+        }
+    }
+
+    static long readLong(JsonReader in) throws IOException {
+        if (!peekNumber(in)) {
+            return 0;
+        }
+        try {
+            return in.nextLong();
+        } catch (NumberFormatException e) {
+            String value = in.nextString();
+            double number = parseDouble(value, in);
+            if (number < Long.MIN_VALUE || number > Long.MAX_VALUE) {
+                throw new JsonSyntaxException("Expected a long but was " + value + " at path " + in.getPreviousPath());
+            }
+            return (long) number;
+        }
+    }
+
+    // false after consuming a null
+    private static boolean peekNumber(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+            return false;
+        }
+        if (token != JsonToken.STRING && token != JsonToken.NUMBER) {
+            throw new JsonSyntaxException("Expected a number but was " + token + " at path " + in.getPath());
+        }
+        return true;
+    }
+
+    private static double parseDouble(String value, JsonReader in) {
+        try {
+            double number = Double.parseDouble(value.trim());
+            if (!Double.isNaN(number) && !Double.isInfinite(number)) {
+                return number;
+            }
+        } catch (NumberFormatException ignored) {
+            // Reported below with the field path
+        }
+        throw new JsonSyntaxException("Expected a number but was \"" + value + "\" at path " + in.getPreviousPath());
+    }
+
+    // Gson's rules: a string is Boolean.parseBoolean'd (so "1" is false), null leaves false
+    static boolean readBoolean(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        if (token == JsonToken.BOOLEAN) {
+            return in.nextBoolean();
+        }
+        if (token == JsonToken.STRING) {
+            return Boolean.parseBoolean(in.nextString());
+        }
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+            return false;
+        }
+        throw new JsonSyntaxException("Expected a boolean but was " + token + " at path " + in.getPath());
+    }
+
+    // Envelope
+
+    static final class ApiResponseAdapter<T> extends TypeAdapter<ApiClient.ApiResponse<T>> {
+        private final TypeAdapter<T> dataAdapter;
+
+        ApiResponseAdapter(TypeAdapter<T> dataAdapter) {
+            this.dataAdapter = dataAdapter;
+        }
+
+        @Override
+        public void write(JsonWriter out, ApiClient.ApiResponse<T> value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("success").value(value.success);
+            out.name("message").value(value.message);
+            out.name("data");
+            dataAdapter.write(out, value.data);
+            if (value.poll_interval_ms > 0) {
+                out.name("poll_interval_ms").value(value.poll_interval_ms);
+            }
+            out.endObject();
+        }
+
+        @Override
+        public ApiClient.ApiResponse<T> read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            ApiClient.ApiResponse<T> result = new ApiClient.ApiResponse<>();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "success":
+                        result.success = readBoolean(in);
+                        break;
+                    case "message":
+                        result.message = readString(in);
+                        break;
+                    case "data":
+                        result.data = dataAdapter.read(in);
+                        break;
+                    case "poll_interval_ms":
+                        result.poll_interval_ms = readLong(in);
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            return result;
+        }
+    }
+
+    // Requests
+
+    static final class DeviceRequestAdapter extends TypeAdapter<ApiClient.DeviceRequest> {
+        @Override
+        public void write(JsonWriter out, ApiClient.DeviceRequest value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("device_id").value(value.device_id);
+            out.name("device_name").value(value.device_name);
+            out.name("device_type").value(value.device_type);
+            out.name("screen_resolution").value(value.screen_resolution);
+            out.name("os_version").value(value.os_version);
+            out.name("app_version").value(value.app_version);
+            out.name("location").value(value.location);
+            out.endObject();
+        }
+
+        @Override
+        public ApiClient.DeviceRequest read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            ApiClient.DeviceRequest result = new ApiClient.DeviceRequest();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "device_id":
+                        result.device_id = readString(in);
+                        break;
+                    case "device_name":
+                        result.device_name = readString(in);
+                        break;
+                    case "device_type":
+                        result.device_type = readString(in);
+                        break;
+                    case "screen_resolution":
+                        result.screen_resolution = readString(in);
+                        break;
+                    case "os_version":
+                        result.os_version = readString(in);
+                        break;
+                    case "app_version":
+                        result.app_version = readString(in);
+                        break;
+                    case "location":
+                        result.location = readString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            return result;
+        }
+    }
+
+    static final class SessionStartRequestAdapter extends TypeAdapter<ApiClient.SessionStartRequest> {
+        @Override
+        public void write(JsonWriter out, ApiClient.SessionStartRequest value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("device_id").value(value.device_id);
+            out.name("package_id").value(value.package_id);
+            out.name("customer_id").value(value.customer_id);
+            out.endObject();
+        }
+
+        @Override
+        public ApiClient.SessionStartRequest read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            ApiClient.SessionStartRequest result = new ApiClient.SessionStartRequest();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "device_id":
+                        result.device_id = readString(in);
+                        break;
+                    case "package_id":
+                        result.package_id = readString(in);
+                        break;
+                    case "customer_id":
+                        result.customer_id = readString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            return result;
+        }
+    }
+
+    static final class SessionStopRequestAdapter extends TypeAdapter<ApiClient.SessionStopRequest> {
+        @Override
+        public void write(JsonWriter out, ApiClient.SessionStopRequest value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("session_id").value(value.session_id);
+            out.endObject();
+        }
+
+        @Override
+        public ApiClient.SessionStopRequest read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            ApiClient.SessionStopRequest result = new ApiClient.SessionStopRequest();
+            in.beginObject();
+            while (in.hasNext()) {
+                if ("session_id".equals(in.nextName())) {
+                    result.session_id = readString(in);
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return result;
+        }
+    }
+
+    static final class HeartbeatRequestAdapter extends TypeAdapter<ApiClient.HeartbeatRequest> {
+        @Override
+        public void write(JsonWriter out, ApiClient.HeartbeatRequest value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            if (value.state_version > 0) {
+                out.name("state_version").value(value.state_version);
+            }
+            // Omitted, not null, in a delta heartbeat
+            if (value.device_name != null) {
+                out.name("device_name").value(value.device_name);
+            }
+            if (value.device_location != null) {
+                out.name("device_location").value(value.device_location);
+            }
+            if (value.metrics != null) {
+                out.name("metrics").beginArray();
+                for (ApiClient.PhaseMetrics metrics : value.metrics) {
+                    PHASE_METRICS.write(out, metrics);
+                }
+                out.endArray();
+            }
+            out.endObject();
+        }
+
+        @Override
+        public ApiClient.HeartbeatRequest read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            ApiClient.HeartbeatRequest result = new ApiClient.HeartbeatRequest();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "state_version":
+                        result.state_version = readLong(in);
+                        break;
+                    case "device_name":
+                        result.device_name = readString(in);
+                        break;
+                    case "device_location":
+                        result.device_location = readString(in);
+                        break;
+                    case "metrics":
+                        if (in.peek() == JsonToken.BEGIN_ARRAY) {
+                            result.metrics = new ArrayList<>();
+                            in.beginArray();
+                            while (in.hasNext()) {
+                                result.metrics.add(PHASE_METRICS.read(in));
+                            }
+                            in.endArray();
+                        } else {
+                            in.skipValue();
+                        }
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            return result;
+        }
+    }
+
+    static final class PhaseMetricsAdapter extends TypeAdapter<ApiClient.PhaseMetrics> {
+        @Override
+        public void write(JsonWriter out, ApiClient.PhaseMetrics value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("endpoint").value(value.endpoint);
+            out.name("phase").value(value.phase);
+            out.name("count").value(value.count);
+            out.name("p50").value(value.p50);
+            out.name("p95").value(value.p95);
+            out.name("p99").value(value.p99);
+            out.name("max").value(value.max);
+            out.endObject();
+        }
+
+        @Override
+        public ApiClient.PhaseMetrics read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            ApiClient.PhaseMetrics result = new ApiClient.PhaseMetrics();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "endpoint":
+                        result.endpoint = readString(in);
+                        break;
+                    case "phase":
+                        result.phase = readString(in);
+                        break;
+                    case "count":
+                        result.count = readLong(in);
+                        break;
+                    case "p50":
+                        result.p50 = readLong(in);
+                        break;
+                    case "p95":
+                        result.p95 = readLong(in);
+                        break;
+                    case "p99":
+                        result.p99 = readLong(in);
+                        break;
+                    case "max":
+                        result.max = readLong(in);
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            return result;
+        }
+    }
+
+    // Responses
+
+    static final class DeviceResponseAdapter extends TypeAdapter<ApiClient.DeviceResponse> {
+        @Override
+        public void write(JsonWriter out, ApiClient.DeviceResponse value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("id").value(value.id);
+            out.name("device_id").value(value.device_id);
+            out.name("device_name").value(value.device_name);
+            out.name("status").value(value.status);
+            out.name("created_at").value(value.created_at);
+            if (value.registration_ttl_seconds > 0) {
+                out.name("registration_ttl_seconds").value(value.registration_ttl_seconds);
+            }
+            out.endObject();
+        }
+
+        @Override
+        public ApiClient.DeviceResponse read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            ApiClient.DeviceResponse result = new ApiClient.DeviceResponse();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id":
+                        result.id = readInt(in);
+                        break;
+                    case "device_id":
+                        result.device_id = readString(in);
+                        break;
+                    case "device_name":
+                        result.device_name = readString(in);
+                        break;
+                    case "status":
+                        result.status = readString(in);
+                        break;
+                    case "created_at":
+                        result.created_at = readString(in);
+                        break;
+                    case "registration_ttl_seconds":
+                        result.registration_ttl_seconds = readLong(in);
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            return result;
+        }
+    }
+
+    static final class SessionResponseAdapter extends TypeAdapter<ApiClient.SessionResponse> {
+        @Override
+        public void write(JsonWriter out, ApiClient.SessionResponse value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("session_id").value(value.session_id);
+            out.name("device_id").value(value.device_id);
+            out.name("customer_name").value(value.customer_name);
+            out.name("package_name").value(value.package_name);
+            out.name("duration_minutes").value(value.duration_minutes);
+            out.name("remaining_minutes").value(value.remaining_minutes);
+            out.name("elapsed_minutes").value(value.elapsed_minutes);
+            out.name("amount").value(value.amount);
+            out.name("status").value(value.status);
+            out.name("start_time").value(value.start_time);
+            out.name("end_time").value(value.end_time);
+            out.endObject();
+        }
+
+        @Override
+        public ApiClient.SessionResponse read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            ApiClient.SessionResponse result = new ApiClient.SessionResponse();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "session_id":
+                        result.session_id = readInt(in);
+                        break;
+                    case "device_id":
+                        result.device_id = readInt(in);
+                        break;
+                    case "customer_name":
+                        result.customer_name = readString(in);
+                        break;
+                    case "package_name":
+                        result.package_name = readString(in);
+                        break;
+                    case "duration_minutes":
+                        result.duration_minutes = readInt(in);
+                        break;
+                    case "remaining_minutes":
+                        result.remaining_minutes = readInt(in);
+                        break;
+                    case "elapsed_minutes":
+                        result.elapsed_minutes = readInt(in);
+                        break;
+                    case "amount":
+                        result.amount = readString(in);
+                        break;
+                    case "status":
+                        result.status = readString(in);
+                        break;
+                    case "start_time":
+                        result.start_time = readString(in);
+                        break;
+                    case "end_time":
+                        result.end_time = readString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            return result;
+        }
+    }
+
+    static final class HeartbeatResponseAdapter extends TypeAdapter<ApiClient.HeartbeatResponse> {
+        private final TypeAdapter<ApiClient.SessionDigest> digestAdapter;
+
+        HeartbeatResponseAdapter(TypeAdapter<ApiClient.SessionDigest> digestAdapter) {
+            this.digestAdapter = digestAdapter;
+        }
+
+        @Override
+        public void write(JsonWriter out, ApiClient.HeartbeatResponse value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("success").value(value.success);
+            out.name("message").value(value.message);
+            out.name("timestamp").value(value.timestamp);
+            if (value.heartbeat_interval_ms > 0) {
+                out.name("heartbeat_interval_ms").value(value.heartbeat_interval_ms);
+            }
+            if (value.resync) {
+                out.name("resync").value(true);
+            }
+            if (value.state_version > 0) {
+                out.name("state_version").value(value.state_version);
+            }
+            if (value.session != null) {
+                out.name("session");
+                digestAdapter.write(out, value.session);
+            }
+            out.endObject();
+        }
+
+        @Override
+        public ApiClient.HeartbeatResponse read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            ApiClient.HeartbeatResponse result = new ApiClient.HeartbeatResponse();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "success":
+                        result.success = readBoolean(in);
+                        break;
+                    case "message":
+                        result.message = readString(in);
+                        break;
+                    case "timestamp":
+                        result.timestamp = readString(in);
+                        break;
+                    case "heartbeat_interval_ms":
+                        result.heartbeat_interval_ms = readLong(in);
+                        break;
+                    case "resync":
+                        result.resync = readBoolean(in);
+                        break;
+                    case "state_version":
+                        result.state_version = readLong(in);
+                        break;
+                    case "session":
+                        if (in.peek() == JsonToken.BEGIN_OBJECT) {
+                            result.session = digestAdapter.read(in);
+                        } else {
+                            in.skipValue();
+                        }
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            return result;
+        }
+    }
+
+    static final class SessionDigestAdapter extends TypeAdapter<ApiClient.SessionDigest> {
+        @Override
+        public void write(JsonWriter out, ApiClient.SessionDigest value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("session_id").value(value.session_id);
+            out.name("remaining_seconds").value(value.remaining_seconds);
+            out.name("version").value(value.version);
+            out.endObject();
+        }
+
+        @Override
+        public ApiClient.SessionDigest read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            ApiClient.SessionDigest result = new ApiClient.SessionDigest();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "session_id":
+                        result.session_id = readInt(in);
+                        break;
+                    case "remaining_seconds":
+                        result.remaining_seconds = readInt(in);
+                        break;
+                    case "version":
+                        result.version = readLong(in);
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            return result;
+        }
+    }
+
+    static final class BatchRequestAdapter extends TypeAdapter<ApiClient.BatchRequest> {
+        private final TypeAdapter<ApiClient.BatchOperation> operationAdapter;
+
+        BatchRequestAdapter(TypeAdapter<ApiClient.BatchOperation> operationAdapter) {
+            this.operationAdapter = operationAdapter;
+        }
+
+        @Override
+        public void write(JsonWriter out, ApiClient.BatchRequest value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("operations").beginArray();
+            if (value.operations != null) {
+                for (ApiClient.BatchOperation operation : value.operations) {
+                    operationAdapter.write(out, operation);
+                }
+            }
+            out.endArray();
+            out.endObject();
+        }
+
+        @Override
+        public ApiClient.BatchRequest read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            ApiClient.BatchRequest result = new ApiClient.BatchRequest();
+            in.beginObject();
+            while (in.hasNext()) {
+                if ("operations".equals(in.nextName()) && in.peek() == JsonToken.BEGIN_ARRAY) {
+                    result.operations = new ArrayList<>();
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        result.operations.add(operationAdapter.read(in));
+                    }
+                    in.endArray();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return result;
+        }
+    }
+
+    static final class BatchOperationAdapter extends TypeAdapter<ApiClient.BatchOperation> {
+        private final TypeAdapter<JsonElement> bodyAdapter;
+
+        BatchOperationAdapter(TypeAdapter<JsonElement> bodyAdapter) {
+            this.bodyAdapter = bodyAdapter;
+        }
+
+        @Override
+        public void write(JsonWriter out, ApiClient.BatchOperation value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("id").value(value.id);
+            out.name("method").value(value.method);
+            out.name("path").value(value.path);
+            if (value.body != null) {
+                out.name("body");
+                bodyAdapter.write(out, value.body);
+            }
+            out.endObject();
+        }
+
+        @Override
+        public ApiClient.BatchOperation read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            ApiClient.BatchOperation result = new ApiClient.BatchOperation();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id":
+                        result.id = readString(in);
+                        break;
+                    case "method":
+                        result.method = readString(in);
+                        break;
+                    case "path":
+                        result.path = readString(in);
+                        break;
+                    case "body":
+                        result.body = bodyAdapter.read(in);
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            return result;
+        }
+    }
+
+    static final class BatchResponseAdapter extends TypeAdapter<ApiClient.BatchResponse> {
+        private final TypeAdapter<ApiClient.BatchResult> resultAdapter;
+
+        BatchResponseAdapter(TypeAdapter<ApiClient.BatchResult> resultAdapter) {
+            this.resultAdapter = resultAdapter;
+        }
+
+        @Override
+        public void write(JsonWriter out, ApiClient.BatchResponse value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("results").beginArray();
+            if (value.results != null) {
+                for (ApiClient.BatchResult result : value.results) {
+                    resultAdapter.write(out, result);
+                }
+            }
+            out.endArray();
+            out.endObject();
+        }
+
+        @Override
+        public ApiClient.BatchResponse read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            ApiClient.BatchResponse result = new ApiClient.BatchResponse();
+            in.beginObject();
+            while (in.hasNext()) {
+                if ("results".equals(in.nextName()) && in.peek() == JsonToken.BEGIN_ARRAY) {
+                    result.results = new ArrayList<>();
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        result.results.add(resultAdapter.read(in));
+                    }
+                    in.endArray();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return result;
+        }
+    }
+
+    static final class BatchResultAdapter extends TypeAdapter<ApiClient.BatchResult> {
+        private final TypeAdapter<JsonElement> bodyAdapter;
+
+        BatchResultAdapter(TypeAdapter<JsonElement> bodyAdapter) {
+            this.bodyAdapter = bodyAdapter;
+        }
+
+        @Override
+        public void write(JsonWriter out, ApiClient.BatchResult value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("id").value(value.id);
+            out.name("status").value(value.status);
+            if (value.body != null) {
+                out.name("body");
+                bodyAdapter.write(out, value.body);
+            }
+            out.endObject();
+        }
+
+        @Override
+        public ApiClient.BatchResult read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            ApiClient.BatchResult result = new ApiClient.BatchResult();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id":
+                        result.id = readString(in);
+                        break;
+                    case "status":
+                        result.status = readInt(in);
+                        break;
+                    case "body":
+                        result.body = bodyAdapter.read(in);
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            return result;
+        }
+    }
+}
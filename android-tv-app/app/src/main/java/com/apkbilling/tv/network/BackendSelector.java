@@ -0,0 +1,462 @@
+package com.apkbilling.tv.network;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+import okhttp3.Response;
+
+// Ordered list of backend servers (primary first) with passive health scoring.
+// Every ApiClient exchange reports its latency and outcome for the backend it went
+// to. The active backend is replaced by the best-scoring alternative once it fails
+// several times in a row or its error rate climbs; while a backup is active, the
+// higher-priority backends are probed and taken back after answering repeatedly.
+// ApiClient follows the active backend on its own, components holding their own
+// connection (WebSocketService) listen for ACTION_BACKEND_CHANGED.
+public final class BackendSelector {
+    private static final String TAG = "BackendSelector";
+
+    public static final String ACTION_BACKEND_CHANGED = "com.apkbilling.tv.BACKEND_CHANGED";
+    public static final String EXTRA_SERVER_URL = "server_url";
+    public static final String EXTRA_REASON = "reason";
+
+    // Same path ApiClient.testConnection() uses under SettingsManager.getApiUrl()
+    private static final String HEALTH_PATH = "/api/health";
+
+    private static final double EWMA_ALPHA = 0.2;
+    private static final int FAILOVER_CONSECUTIVE_FAILURES = 3;
+    private static final double FAILOVER_ERROR_RATE = 0.5;
+    private static final int MIN_SAMPLES_FOR_ERROR_RATE = 5;
+    // A backend that was just left is not picked again before this
+    private static final long COOLDOWN_MILLIS = 30000;
+    // Against flapping: no failback sooner than this after a switch
+    private static final long MIN_DWELL_MILLIS = 60000;
+    private static final long PROBE_INTERVAL_MILLIS = 15000;
+    private static final long PROBE_TIMEOUT_MILLIS = 3000;
+    private static final int FAILBACK_PROBE_SUCCESSES = 2;
+    // Score of a backend without latency samples, and the per-position penalty that keeps the configured order on ties
+    private static final double UNKNOWN_LATENCY_MILLIS = 500;
+    private static final double PRIORITY_PENALTY_MILLIS = 100;
+
+    public interface Listener {
+        void onBackendChanged(String serverUrl, String reason);
+    }
+
+    private static volatile BackendSelector instance;
+
+    private final Context context;
+    private final List<Backend> backends = new ArrayList<>();
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private Backend active;
+    private long activeSince = 0;
+    private ScheduledFuture<?> probeTask;
+
+    // Switchover time: first failure on the old backend until the first success on the new one
+    private long switchStartedAt = 0;
+    private long lastSwitchoverMillis = -1;
+    private long maxSwitchoverMillis = 0;
+    private long totalSwitchoverMillis = 0;
+    private int measuredSwitchovers = 0;
+    private int failovers = 0;
+    private int failbacks = 0;
+
+    private static final class Backend {
+        final String serverUrl;
+        final HttpUrl url;
+        final int priority;
+
+        // EWMA of response time and of the failure indicator; -1 = no latency sample yet
+        double latencyMillis = -1;
+        double errorRate = 0;
+        int samples = 0;
+        int consecutiveFailures = 0;
+        // elapsedRealtime() of the first failure in the current streak
+        long failingSince = 0;
+        long cooldownUntil = 0;
+        int probeSuccesses = 0;
+
+        Backend(String serverUrl, HttpUrl url, int priority) {
+            this.serverUrl = serverUrl;
+            this.url = url;
+            this.priority = priority;
+        }
+
+        boolean matches(HttpUrl other) {
+            return url.scheme().equals(other.scheme()) && url.host().equals(other.host()) && url.port() == other.port();
+        }
+
+        double score() {
+            double latency = latencyMillis >= 0 ? latencyMillis : UNKNOWN_LATENCY_MILLIS;
+            return latency * (1 + 4 * errorRate) + priority * PRIORITY_PENALTY_MILLIS;
+        }
+    }
+
+    private BackendSelector(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    public static BackendSelector getInstance(Context context) {
+        if (instance == null) {
+            synchronized (BackendSelector.class) {
+                if (instance == null) {
+                    instance = new BackendSelector(context);
+                }
+            }
+        }
+        return instance;
+    }
+
+    // null until an ApiClient has been created
+    public static BackendSelector peek() {
+        return instance;
+    }
+
+    // Server URLs without the /api suffix, primary first. Health data of backends that
+    // stay in the list is kept; a new primary becomes active right away.
+    public void setBackends(List<String> serverUrls) {
+        String changedTo = null;
+        synchronized (this) {
+            List<Backend> updated = new ArrayList<>();
+            for (String serverUrl : serverUrls) {
+                String normalized = normalize(serverUrl);
+                HttpUrl url = normalized != null ? HttpUrl.parse(normalized) : null;
+                if (url == null || find(updated, url) != null) {
+                    continue;
+                }
+                Backend existing = find(backends, url);
+                Backend backend = new Backend(normalized, url, updated.size());
+                if (existing != null) {
+                    backend.latencyMillis = existing.latencyMillis;
+                    backend.errorRate = existing.errorRate;
+                    backend.samples = existing.samples;
+                }
+                updated.add(backend);
+            }
+            if (sameUrls(updated)) {
+                return;
+            }
+
+            Backend previous = active;
+            Backend oldPrimary = backends.isEmpty() ? null : backends.get(0);
+            backends.clear();
+            backends.addAll(updated);
+            Backend newPrimary = backends.isEmpty() ? null : backends.get(0);
+            Backend keep = previous != null ? find(backends, previous.url) : null;
+            boolean primaryChanged = newPrimary == null || oldPrimary == null || !newPrimary.matches(oldPrimary.url);
+            active = keep != null && !primaryChanged ? keep : newPrimary;
+            activeSince = SystemClock.elapsedRealtime();
+            switchStartedAt = 0;
+            Log.i(TAG, "Backends: " + describeUrls() + ", active " + (active != null ? active.serverUrl : "none"));
+            if (previous != null && active != null && !active.matches(previous.url)) {
+                changedTo = active.serverUrl;
+            }
+            updateProbing();
+        }
+        if (changedTo != null) {
+            notifyChanged(changedTo, "settings");
+        }
+    }
+
+    public synchronized String getActiveServerUrl() {
+        return active != null ? active.serverUrl : null;
+    }
+
+    // Maps a URL under any configured backend (e.g. ".../api") to the same path on
+    // the active backend; anything else is returned unchanged
+    public synchronized String resolve(String baseUrl) {
+        if (active == null || baseUrl == null || backends.size() < 2) {
+            return baseUrl;
+        }
+        for (Backend backend : backends) {
+            if (baseUrl.startsWith(backend.serverUrl)) {
+                String rest = baseUrl.substring(backend.serverUrl.length());
+                if (rest.isEmpty() || rest.startsWith("/")) {
+                    return active.serverUrl + rest;
+                }
+            }
+        }
+        return baseUrl;
+    }
+
+    // Retries of a call issued before a failover go to the new active backend
+    public synchronized Request reroute(Request request) {
+        if (active == null || backends.size() < 2 || active.matches(request.url())
+                || find(backends, request.url()) == null) {
+            return request;
+        }
+        HttpUrl url = request.url().newBuilder()
+                .scheme(active.url.scheme())
+                .host(active.url.host())
+                .port(active.url.port())
+                .build();
+        return request.newBuilder().url(url).build();
+    }
+
+    // Passive scoring from real traffic. Server errors (5xx except 501) and transport
+    // failures count against the backend; any other answer shows it is alive.
+    public void onResult(HttpUrl url, boolean success, long latencyMillis) {
+        String changedTo = null;
+        synchronized (this) {
+            Backend backend = find(backends, url);
+            if (backend == null) {
+                return;
+            }
+            record(backend, success, latencyMillis);
+            if (backend != active) {
+                return;
+            }
+            if (success) {
+                if (switchStartedAt > 0) {
+                    recordSwitchover(SystemClock.elapsedRealtime() - switchStartedAt);
+                }
+                return;
+            }
+            if (backends.size() > 1 && isUnhealthy(backend)) {
+                Backend candidate = bestCandidate(backend);
+                if (candidate == null) {
+                    Log.w(TAG, backend.serverUrl + " is failing but no other backend is available");
+                    return;
+                }
+                long now = SystemClock.elapsedRealtime();
+                backend.cooldownUntil = now + COOLDOWN_MILLIS;
+                // Measuring from when the old backend started failing, that's when billing stalled
+                switchStartedAt = backend.failingSince > 0 ? backend.failingSince : now;
+                failovers++;
+                Log.w(TAG, String.format(Locale.US, "Failing over %s -> %s (failures=%d errorRate=%.2f)",
+                        backend.serverUrl, candidate.serverUrl, backend.consecutiveFailures, backend.errorRate));
+                switchTo(candidate);
+                changedTo = candidate.serverUrl;
+            }
+        }
+        if (changedTo != null) {
+            notifyChanged(changedTo, "failover");
+        }
+    }
+
+    public void addListener(Listener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public synchronized String getStats() {
+        StringBuilder sb = new StringBuilder();
+        long now = SystemClock.elapsedRealtime();
+        for (Backend backend : backends) {
+            sb.append(backend == active ? "* " : "  ").append(backend.serverUrl).append(String.format(Locale.US,
+                    " latency=%s errors=%.2f failures=%d samples=%d%s\n",
+                    backend.latencyMillis >= 0 ? Math.round(backend.latencyMillis) + "ms" : "?",
+                    backend.errorRate, backend.consecutiveFailures, backend.samples,
+                    backend.cooldownUntil > now ? " cooldown=" + (backend.cooldownUntil - now) + "ms" : ""));
+        }
+        sb.append(String.format(Locale.US, "failovers=%d failbacks=%d switchover last=%s avg=%s max=%dms",
+                failovers, failbacks,
+                lastSwitchoverMillis >= 0 ? lastSwitchoverMillis + "ms" : "-",
+                measuredSwitchovers > 0 ? (totalSwitchoverMillis / measuredSwitchovers) + "ms" : "-",
+                maxSwitchoverMillis));
+        if (switchStartedAt > 0) {
+            sb.append(" (switching for ").append(now - switchStartedAt).append("ms)");
+        }
+        return sb.toString();
+    }
+
+    private void record(Backend backend, boolean success, long latencyMillis) {
+        backend.samples++;
+        backend.errorRate += EWMA_ALPHA * ((success ? 0 : 1) - backend.errorRate);
+        if (success) {
+            backend.consecutiveFailures = 0;
+            backend.failingSince = 0;
+            if (latencyMillis >= 0) {
+                backend.latencyMillis = backend.latencyMillis < 0
+                        ? latencyMillis
+                        : backend.latencyMillis + EWMA_ALPHA * (latencyMillis - backend.latencyMillis);
+            }
+        } else {
+            if (backend.consecutiveFailures++ == 0) {
+                backend.failingSince = SystemClock.elapsedRealtime();
+            }
+        }
+    }
+
+    private static boolean isUnhealthy(Backend backend) {
+        return backend.consecutiveFailures >= FAILOVER_CONSECUTIVE_FAILURES
+                || (backend.samples >= MIN_SAMPLES_FOR_ERROR_RATE && backend.errorRate >= FAILOVER_ERROR_RATE);
+    }
+
+    private Backend bestCandidate(Backend current) {
+        long now = SystemClock.elapsedRealtime();
+        Backend best = null;
+        for (Backend backend : backends) {
+            if (backend == current || backend.cooldownUntil > now) {
+                continue;
+            }
+            if (best == null || backend.score() < best.score()) {
+                best = backend;
+            }
+        }
+        return best;
+    }
+
+    private void switchTo(Backend backend) {
+        active = backend;
+        activeSince = SystemClock.elapsedRealtime();
+        backend.consecutiveFailures = 0;
+        backend.failingSince = 0;
+        for (Backend other : backends) {
+            other.probeSuccesses = 0;
+        }
+        // Breakers and Retry-After holds describe the backend we just left
+        Resilience.getInstance().reset();
+        updateProbing();
+    }
+
+    private void recordSwitchover(long millis) {
+        switchStartedAt = 0;
+        lastSwitchoverMillis = millis;
+        maxSwitchoverMillis = Math.max(maxSwitchoverMillis, millis);
+        totalSwitchoverMillis += millis;
+        measuredSwitchovers++;
+        Log.i(TAG, "Switchover to " + active.serverUrl + " completed in " + millis + "ms");
+    }
+
+    // Probing only runs while a lower-priority backend is active
+    private void updateProbing() {
+        boolean needed = active != null && active.priority > 0;
+        if (needed && probeTask == null) {
+            probeTask = HttpEngine.getInstance().getScheduler().scheduleWithFixedDelay(
+                    this::probeHigherPriority, PROBE_INTERVAL_MILLIS, PROBE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        } else if (!needed && probeTask != null) {
+            probeTask.cancel(false);
+            probeTask = null;
+        }
+    }
+
+    // Plain health GETs outside the request budgets: one per backend every 15 s at most
+    private void probeHigherPriority() {
+        List<Backend> targets = new ArrayList<>();
+        synchronized (this) {
+            if (active == null) {
+                return;
+            }
+            for (Backend backend : backends) {
+                if (backend.priority < active.priority) {
+                    targets.add(backend);
+                }
+            }
+        }
+        HttpEngine engine = HttpEngine.getInstance();
+        for (Backend backend : targets) {
+            HttpUrl url = backend.url.newBuilder().encodedPath(HEALTH_PATH).build();
+            Request request = new Request.Builder().url(url).addHeader("Accept", "application/json").build();
+            Call call = engine.clientFor(url).newCall(request);
+            call.timeout().timeout(PROBE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            long sentAt = SystemClock.elapsedRealtime();
+            call.enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    onProbeResult(backend, false, -1);
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    response.close();
+                    onProbeResult(backend, response.isSuccessful(), SystemClock.elapsedRealtime() - sentAt);
+                }
+            });
+        }
+    }
+
+    private void onProbeResult(Backend backend, boolean success, long latencyMillis) {
+        String changedTo = null;
+        synchronized (this) {
+            if (!backends.contains(backend) || active == null) {
+                return;
+            }
+            record(backend, success, latencyMillis);
+            backend.probeSuccesses = success ? backend.probeSuccesses + 1 : 0;
+            long now = SystemClock.elapsedRealtime();
+            if (success && backend.priority < active.priority
+                    && backend.probeSuccesses >= FAILBACK_PROBE_SUCCESSES
+                    && now - activeSince >= MIN_DWELL_MILLIS) {
+                Log.i(TAG, "Failing back " + active.serverUrl + " -> " + backend.serverUrl);
+                failbacks++;
+                // Planned switch, nothing was down: not counted as a switchover
+                switchStartedAt = 0;
+                switchTo(backend);
+                changedTo = backend.serverUrl;
+            }
+        }
+        if (changedTo != null) {
+            notifyChanged(changedTo, "failback");
+        }
+    }
+
+    private void notifyChanged(String serverUrl, String reason) {
+        for (Listener listener : listeners) {
+            listener.onBackendChanged(serverUrl, reason);
+        }
+        Intent intent = new Intent(ACTION_BACKEND_CHANGED);
+        intent.setPackage(context.getPackageName());
+        intent.putExtra(EXTRA_SERVER_URL, serverUrl);
+        intent.putExtra(EXTRA_REASON, reason);
+        context.sendBroadcast(intent);
+    }
+
+    private boolean sameUrls(List<Backend> updated) {
+        if (updated.size() != backends.size()) {
+            return false;
+        }
+        for (int i = 0; i < updated.size(); i++) {
+            if (!updated.get(i).serverUrl.equals(backends.get(i).serverUrl)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String describeUrls() {
+        StringBuilder sb = new StringBuilder();
+        for (Backend backend : backends) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(backend.serverUrl);
+        }
+        return sb.toString();
+    }
+
+    private static Backend find(List<Backend> list, HttpUrl url) {
+        for (Backend backend : list) {
+            if (backend.matches(url)) {
+                return backend;
+            }
+        }
+        return null;
+    }
+
+    private static String normalize(String serverUrl) {
+        if (serverUrl == null) {
+            return null;
+        }
+        String trimmed = serverUrl.trim();
+        while (trimmed.endsWith("/")) {
+            trimmed = trimmed.substring(0, trimmed.length() - 1);
+        }
+        return trimmed.isEmpty() ? null : trimmed;
+    }
+}
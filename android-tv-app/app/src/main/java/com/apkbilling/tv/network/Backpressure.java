@@ -0,0 +1,68 @@
+package com.apkbilling.tv.network;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Locale;
+
+// Server-driven slowdown for one endpoint class.
+// A 429/503 with Retry-After holds every request of the class until that time,
+// and a poll interval advertised in the response body stretches the services'
+// own schedules. Hints can only slow the client down, and are capped so a bad
+// value can't silence a TV for good.
+public class Backpressure {
+    private static final String TAG = "Backpressure";
+
+    private static final long MAX_RETRY_AFTER_MILLIS = 10 * 60 * 1000L;
+    private static final long MAX_INTERVAL_MILLIS = 5 * 60 * 1000L;
+
+    private final EndpointClass endpointClass;
+    // elapsedRealtime() before which no request of this class is sent
+    private long notBefore = 0;
+    // 0 = the server gave no hint
+    private long intervalHintMillis = 0;
+
+    // Statistics
+    private long retryAfterCount = 0;
+
+    public Backpressure(EndpointClass endpointClass) {
+        this.endpointClass = endpointClass;
+    }
+
+    public synchronized void onRetryAfter(long millis) {
+        long capped = Math.min(Math.max(0, millis), MAX_RETRY_AFTER_MILLIS);
+        notBefore = Math.max(notBefore, SystemClock.elapsedRealtime() + capped);
+        retryAfterCount++;
+        Log.w(TAG, endpointClass + " backing off for " + capped + "ms (Retry-After)");
+    }
+
+    // Every parsed response reports its hint; a response without one clears it
+    public synchronized void onIntervalHint(long millis) {
+        long hint = Math.min(Math.max(0, millis), MAX_INTERVAL_MILLIS);
+        if (hint != intervalHintMillis) {
+            Log.i(TAG, endpointClass + " interval hint " + intervalHintMillis + "ms -> " + hint + "ms");
+            intervalHintMillis = hint;
+        }
+    }
+
+    // Hints came from a backend that is no longer in use
+    public synchronized void reset() {
+        notBefore = 0;
+        intervalHintMillis = 0;
+    }
+
+    public synchronized long getRemainingMillis() {
+        return Math.max(0, notBefore - SystemClock.elapsedRealtime());
+    }
+
+    // The delay a periodic caller should use instead of its default
+    public synchronized long getInterval(long defaultMillis) {
+        long interval = Math.max(defaultMillis, intervalHintMillis);
+        return Math.max(interval, getRemainingMillis());
+    }
+
+    public synchronized String getStats() {
+        return String.format(Locale.US, "hint=%dms holdFor=%dms retryAfters=%d",
+                intervalHintMillis, getRemainingMillis(), retryAfterCount);
+    }
+}
@@ -0,0 +1,99 @@
+package com.apkbilling.tv.network;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Per-endpoint latency histograms for each phase of an HTTP call.
+// Fed by the HttpEngine event listener; calls are attributed to an endpoint
+// through the Endpoint tag ApiClient puts on every request. Memory is fixed:
+// one LatencyHistogram per endpoint and phase, created up front.
+public class CallMetrics {
+
+    public enum Phase {
+        DNS,        // dnsStart -> dnsEnd, only when the connection is new
+        CONNECT,    // connectStart -> connectEnd (TCP, plus TLS if any)
+        TTFB,       // request headers sent -> response headers started
+        BODY,       // response body start -> end
+        TOTAL       // callStart -> callEnd
+    }
+
+    private final Map<Endpoint, Map<Phase, LatencyHistogram>> histograms = new EnumMap<>(Endpoint.class);
+    private final Map<Endpoint, AtomicLong> failures = new EnumMap<>(Endpoint.class);
+
+    public CallMetrics() {
+        for (Endpoint endpoint : Endpoint.values()) {
+            Map<Phase, LatencyHistogram> phases = new EnumMap<>(Phase.class);
+            for (Phase phase : Phase.values()) {
+                phases.put(phase, new LatencyHistogram());
+            }
+            histograms.put(endpoint, phases);
+            failures.put(endpoint, new AtomicLong());
+        }
+    }
+
+    public void record(Endpoint endpoint, Phase phase, long millis) {
+        histograms.get(endpoint).get(phase).record(millis);
+    }
+
+    public void recordFailure(Endpoint endpoint) {
+        failures.get(endpoint).incrementAndGet();
+    }
+
+    public LatencyHistogram getHistogram(Endpoint endpoint, Phase phase) {
+        return histograms.get(endpoint).get(phase);
+    }
+
+    // Non-empty histograms in a form that can ride along in the heartbeat
+    public List<ApiClient.PhaseMetrics> snapshot() {
+        List<ApiClient.PhaseMetrics> result = new ArrayList<>();
+        for (Endpoint endpoint : Endpoint.values()) {
+            for (Phase phase : Phase.values()) {
+                LatencyHistogram histogram = getHistogram(endpoint, phase);
+                if (histogram.getCount() == 0) {
+                    continue;
+                }
+                ApiClient.PhaseMetrics metrics = new ApiClient.PhaseMetrics();
+                metrics.endpoint = endpoint.name();
+                metrics.phase = phase.name();
+                metrics.count = histogram.getCount();
+                metrics.p50 = histogram.percentile(0.50);
+                metrics.p95 = histogram.percentile(0.95);
+                metrics.p99 = histogram.percentile(0.99);
+                metrics.max = histogram.getMax();
+                result.add(metrics);
+            }
+        }
+        return result;
+    }
+
+    public void reset() {
+        for (Endpoint endpoint : Endpoint.values()) {
+            for (LatencyHistogram histogram : histograms.get(endpoint).values()) {
+                histogram.reset();
+            }
+            failures.get(endpoint).set(0);
+        }
+    }
+
+    // Human-readable dump for the settings debug screen
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        for (Endpoint endpoint : Endpoint.values()) {
+            long failed = failures.get(endpoint).get();
+            if (getHistogram(endpoint, Phase.TOTAL).getCount() == 0 && failed == 0) {
+                continue;
+            }
+            sb.append(endpoint).append(" (failed=").append(failed).append(")\n");
+            for (Phase phase : Phase.values()) {
+                LatencyHistogram histogram = getHistogram(endpoint, phase);
+                if (histogram.getCount() > 0) {
+                    sb.append("  ").append(phase).append(": ").append(histogram).append('\n');
+                }
+            }
+        }
+        return sb.length() == 0 ? "No calls recorded yet\n" : sb.toString();
+    }
+}
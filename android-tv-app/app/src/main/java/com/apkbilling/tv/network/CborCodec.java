@@ -0,0 +1,332 @@
+package com.apkbilling.tv.network;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.TypeAdapter;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ByteString;
+
+// Minimal CBOR (RFC 8949) codec for the small, hot payloads (heartbeat, active session).
+// Values go through Gson's JsonElement tree, so the same ApiTypeAdapters define the
+// shape for both encodings. Numbers and booleans are binary and strings carry no
+// quoting or escaping, which is where most of the savings on these payloads come from.
+//
+// Negotiation: requests advertise CBOR in Accept and the response Content-Type
+// decides how it is decoded. Request bodies are only sent as CBOR to hosts that
+// have answered in CBOR before; a 415 puts the host back on JSON.
+public final class CborCodec {
+    public static final MediaType CBOR = MediaType.get("application/cbor");
+    public static final String ACCEPT = "application/cbor, application/json;q=0.9";
+
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1;
+    private static final int MAJOR_BYTES = 2;
+    private static final int MAJOR_TEXT = 3;
+    private static final int MAJOR_ARRAY = 4;
+    private static final int MAJOR_MAP = 5;
+    private static final int MAJOR_TAG = 6;
+    private static final int MAJOR_SIMPLE = 7;
+
+    private static final int INDEFINITE = 31;
+    private static final int BREAK = 0xff;
+
+    // Nesting limit for untrusted input
+    private static final int MAX_DEPTH = 32;
+
+    private static final Set<String> cborHosts = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    private CborCodec() {
+    }
+
+    // Negotiation state
+
+    public static boolean isSupported(HttpUrl url) {
+        return cborHosts.contains(hostKey(url));
+    }
+
+    public static void markSupported(HttpUrl url) {
+        cborHosts.add(hostKey(url));
+    }
+
+    public static void markUnsupported(HttpUrl url) {
+        cborHosts.remove(hostKey(url));
+    }
+
+    public static boolean isCbor(MediaType contentType) {
+        return contentType != null && "application".equals(contentType.type())
+                && "cbor".equals(contentType.subtype());
+    }
+
+    public static boolean isCbor(Request request) {
+        return request.body() != null && isCbor(request.body().contentType());
+    }
+
+    private static String hostKey(HttpUrl url) {
+        return url.host() + ":" + url.port();
+    }
+
+    // Typed entry points, mirroring JsonCodec
+
+    public static <T> RequestBody write(T value, TypeAdapter<T> adapter) {
+        Buffer buffer = new Buffer();
+        encode(adapter.toJsonTree(value), buffer);
+        return RequestBody.create(buffer.readByteString(), CBOR);
+    }
+
+    // The caller still owns (and closes) the response
+    public static <T> T read(ResponseBody body, TypeAdapter<T> adapter) throws IOException {
+        return adapter.fromJsonTree(decode(body.source(), 0));
+    }
+
+    // Encoding
+
+    public static void encode(JsonElement element, Buffer out) {
+        if (element == null || element.isJsonNull()) {
+            out.writeByte(0xf6);
+        } else if (element.isJsonObject()) {
+            Set<Map.Entry<String, JsonElement>> entries = element.getAsJsonObject().entrySet();
+            writeHead(out, MAJOR_MAP, entries.size());
+            for (Map.Entry<String, JsonElement> entry : entries) {
+                writeText(out, entry.getKey());
+                encode(entry.getValue(), out);
+            }
+        } else if (element.isJsonArray()) {
+            JsonArray array = element.getAsJsonArray();
+            writeHead(out, MAJOR_ARRAY, array.size());
+            for (JsonElement item : array) {
+                encode(item, out);
+            }
+        } else {
+            JsonPrimitive primitive = element.getAsJsonPrimitive();
+            if (primitive.isBoolean()) {
+                out.writeByte(primitive.getAsBoolean() ? 0xf5 : 0xf4);
+            } else if (primitive.isNumber()) {
+                writeNumber(out, primitive.getAsNumber());
+            } else {
+                writeText(out, primitive.getAsString());
+            }
+        }
+    }
+
+    private static void writeNumber(Buffer out, Number number) {
+        BigDecimal decimal = new BigDecimal(number.toString());
+        try {
+            long value = decimal.longValueExact();
+            if (value >= 0) {
+                writeHead(out, MAJOR_UNSIGNED, value);
+            } else {
+                writeHead(out, MAJOR_NEGATIVE, -1 - value);
+            }
+            return;
+        } catch (ArithmeticException notIntegral) {
+            // fall through to floating point
+        }
+        double value = number.doubleValue();
+        float single = (float) value;
+        if (single == value) {
+            out.writeByte(0xfa);
+            out.writeInt(Float.floatToIntBits(single));
+        } else {
+            out.writeByte(0xfb);
+            out.writeLong(Double.doubleToLongBits(value));
+        }
+    }
+
+    private static void writeText(Buffer out, String text) {
+        ByteString utf8 = ByteString.encodeUtf8(text);
+        writeHead(out, MAJOR_TEXT, utf8.size());
+        out.write(utf8);
+    }
+
+    // Major type plus the shortest argument encoding
+    private static void writeHead(Buffer out, int major, long argument) {
+        int type = major << 5;
+        if (argument < 24) {
+            out.writeByte(type | (int) argument);
+        } else if (argument <= 0xff) {
+            out.writeByte(type | 24);
+            out.writeByte((int) argument);
+        } else if (argument <= 0xffff) {
+            out.writeByte(type | 25);
+            out.writeShort((int) argument);
+        } else if (argument <= 0xffffffffL) {
+            out.writeByte(type | 26);
+            out.writeInt((int) argument);
+        } else {
+            out.writeByte(type | 27);
+            out.writeLong(argument);
+        }
+    }
+
+    // Decoding
+
+    private static JsonElement decode(BufferedSource in, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("CBOR nesting too deep");
+        }
+        int initial = in.readByte() & 0xff;
+        int major = initial >>> 5;
+        int info = initial & 0x1f;
+
+        switch (major) {
+            case MAJOR_UNSIGNED:
+                return new JsonPrimitive(readArgument(in, info));
+            case MAJOR_NEGATIVE:
+                return new JsonPrimitive(-1 - readArgument(in, info));
+            case MAJOR_BYTES:
+                // Not produced by the backend; keep the tree shape and move on
+                skipString(in, info, MAJOR_BYTES);
+                return JsonNull.INSTANCE;
+            case MAJOR_TEXT:
+                return new JsonPrimitive(readText(in, info));
+            case MAJOR_ARRAY: {
+                JsonArray array = new JsonArray();
+                if (info == INDEFINITE) {
+                    while (!atBreak(in)) {
+                        array.add(decode(in, depth + 1));
+                    }
+                } else {
+                    long size = readArgument(in, info);
+                    for (long i = 0; i < size; i++) {
+                        array.add(decode(in, depth + 1));
+                    }
+                }
+                return array;
+            }
+            case MAJOR_MAP: {
+                JsonObject object = new JsonObject();
+                if (info == INDEFINITE) {
+                    while (!atBreak(in)) {
+                        readEntry(in, object, depth);
+                    }
+                } else {
+                    long size = readArgument(in, info);
+                    for (long i = 0; i < size; i++) {
+                        readEntry(in, object, depth);
+                    }
+                }
+                return object;
+            }
+            case MAJOR_TAG:
+                // Tags (e.g. date/time) only annotate the value that follows
+                readArgument(in, info);
+                return decode(in, depth + 1);
+            default:
+                return decodeSimple(in, info);
+        }
+    }
+
+    private static void readEntry(BufferedSource in, JsonObject object, int depth) throws IOException {
+        JsonElement key = decode(in, depth + 1);
+        JsonElement value = decode(in, depth + 1);
+        object.add(key.isJsonPrimitive() ? key.getAsString() : key.toString(), value);
+    }
+
+    private static JsonElement decodeSimple(BufferedSource in, int info) throws IOException {
+        switch (info) {
+            case 20:
+                return new JsonPrimitive(false);
+            case 21:
+                return new JsonPrimitive(true);
+            case 22:
+            case 23:
+                return JsonNull.INSTANCE;
+            case 25:
+                return new JsonPrimitive(halfToFloat(in.readShort() & 0xffff));
+            case 26:
+                return new JsonPrimitive(Float.intBitsToFloat(in.readInt()));
+            case 27:
+                return new JsonPrimitive(Double.longBitsToDouble(in.readLong()));
+            default:
+                throw new IOException("Unsupported CBOR simple value " + info);
+        }
+    }
+
+    private static long readArgument(BufferedSource in, int info) throws IOException {
+        if (info < 24) {
+            return info;
+        }
+        switch (info) {
+            case 24:
+                return in.readByte() & 0xffL;
+            case 25:
+                return in.readShort() & 0xffffL;
+            case 26:
+                return in.readInt() & 0xffffffffL;
+            case 27:
+                return in.readLong();
+            default:
+                throw new IOException("Invalid CBOR argument " + info);
+        }
+    }
+
+    private static String readText(BufferedSource in, int info) throws IOException {
+        if (info != INDEFINITE) {
+            return in.readUtf8(readArgument(in, info));
+        }
+        StringBuilder sb = new StringBuilder();
+        while (!atBreak(in)) {
+            int chunk = in.readByte() & 0xff;
+            if (chunk >>> 5 != MAJOR_TEXT) {
+                throw new IOException("Invalid chunk in CBOR text");
+            }
+            sb.append(in.readUtf8(readArgument(in, chunk & 0x1f)));
+        }
+        return sb.toString();
+    }
+
+    private static void skipString(BufferedSource in, int info, int major) throws IOException {
+        if (info != INDEFINITE) {
+            in.skip(readArgument(in, info));
+            return;
+        }
+        while (!atBreak(in)) {
+            int chunk = in.readByte() & 0xff;
+            if (chunk >>> 5 != major) {
+                throw new IOException("Invalid chunk in CBOR string");
+            }
+            in.skip(readArgument(in, chunk & 0x1f));
+        }
+    }
+
+    // Consumes the break byte that ends an indefinite-length item
+    private static boolean atBreak(BufferedSource in) throws IOException {
+        in.require(1);
+        if ((in.getBuffer().getByte(0) & 0xff) == BREAK) {
+            in.readByte();
+            return true;
+        }
+        return false;
+    }
+
+    private static float halfToFloat(int half) {
+        int exponent = (half >>> 10) & 0x1f;
+        int mantissa = half & 0x3ff;
+        float value;
+        if (exponent == 0) {
+            value = (float) (mantissa * Math.pow(2, -24));
+        } else if (exponent == 31) {
+            value = mantissa == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+        } else {
+            value = (float) ((mantissa + 1024) * Math.pow(2, exponent - 25));
+        }
+        return (half & 0x8000) != 0 ? -value : value;
+    }
+}
@@ -0,0 +1,132 @@
+package com.apkbilling.tv.network;
+
+import android.os.SystemClock;
+
+// Classic three-state circuit breaker.
+// CLOSED: requests flow, consecutive failures are counted.
+// OPEN: requests fail fast until openMillis has passed.
+// HALF_OPEN: a single probe request is let through; success closes the
+// circuit, failure opens it again.
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    public interface StateListener {
+        void onStateChanged(EndpointClass endpointClass, State state);
+    }
+
+    private final EndpointClass endpointClass;
+    private final int failureThreshold;
+    private final long openMillis;
+    private final StateListener listener;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAt = 0;
+    private boolean probeInFlight = false;
+
+    // Statistics
+    private long rejected = 0;
+    private long timesOpened = 0;
+
+    public CircuitBreaker(EndpointClass endpointClass, int failureThreshold, long openMillis, StateListener listener) {
+        this.endpointClass = endpointClass;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = openMillis;
+        this.listener = listener;
+    }
+
+    public boolean allowRequest() {
+        State changed = null;
+        boolean allowed;
+        synchronized (this) {
+            if (state == State.OPEN && SystemClock.elapsedRealtime() - openedAt >= openMillis) {
+                state = State.HALF_OPEN;
+                probeInFlight = false;
+                changed = state;
+            }
+            if (state == State.CLOSED) {
+                allowed = true;
+            } else if (state == State.HALF_OPEN && !probeInFlight) {
+                probeInFlight = true;
+                allowed = true;
+            } else {
+                rejected++;
+                allowed = false;
+            }
+        }
+        notifyListener(changed);
+        return allowed;
+    }
+
+    public void onSuccess() {
+        State changed = null;
+        synchronized (this) {
+            consecutiveFailures = 0;
+            probeInFlight = false;
+            if (state != State.CLOSED) {
+                state = State.CLOSED;
+                changed = state;
+            }
+        }
+        notifyListener(changed);
+    }
+
+    // The allowed request ended without telling anything about the server (shed,
+    // cancelled, resent in another form): a half-open probe slot is freed for the next one
+    public synchronized void release() {
+        probeInFlight = false;
+    }
+
+    public void onFailure() {
+        State changed = null;
+        synchronized (this) {
+            consecutiveFailures++;
+            probeInFlight = false;
+            if (state == State.HALF_OPEN
+                    || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+                state = State.OPEN;
+                openedAt = SystemClock.elapsedRealtime();
+                timesOpened++;
+                changed = state;
+            }
+        }
+        notifyListener(changed);
+    }
+
+    // Back to CLOSED without waiting for a probe, e.g. after switching to another backend
+    public void reset() {
+        State changed = null;
+        synchronized (this) {
+            consecutiveFailures = 0;
+            probeInFlight = false;
+            if (state != State.CLOSED) {
+                state = State.CLOSED;
+                changed = state;
+            }
+        }
+        notifyListener(changed);
+    }
+
+    public synchronized State getState() {
+        // Report HALF_OPEN once the open period is over even if no request arrived yet
+        if (state == State.OPEN && SystemClock.elapsedRealtime() - openedAt >= openMillis) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    public synchronized String getStats() {
+        return "state=" + state + " failures=" + consecutiveFailures + " opened=" + timesOpened + " rejected=" + rejected;
+    }
+
+    private void notifyListener(State changed) {
+        if (changed != null && listener != null) {
+            listener.onStateChanged(endpointClass, changed);
+        }
+    }
+}
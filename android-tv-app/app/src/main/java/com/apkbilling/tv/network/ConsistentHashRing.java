@@ -0,0 +1,93 @@
+package com.apkbilling.tv.network;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Maps keys (device ids) onto nodes (server URLs) with virtual nodes on a hash ring.
+// Each node is placed at many points, so load is even, and adding or removing a node
+// only moves the keys in the arcs it gains or loses (about 1/N of them). Every TV
+// computes the same mapping from the same node list, no coordination needed.
+public final class ConsistentHashRing {
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+    private final List<String> nodes;
+
+    public ConsistentHashRing(List<String> nodes) {
+        this(nodes, DEFAULT_VIRTUAL_NODES);
+    }
+
+    public ConsistentHashRing(List<String> nodes, int virtualNodes) {
+        List<String> distinct = new ArrayList<>();
+        for (String node : nodes) {
+            if (node != null && !distinct.contains(node)) {
+                distinct.add(node);
+            }
+        }
+        this.nodes = Collections.unmodifiableList(distinct);
+        for (String node : distinct) {
+            for (int i = 0; i < Math.max(1, virtualNodes); i++) {
+                // On the rare collision the lexically smaller node keeps the point, independent of list order
+                long point = hash(node + "#" + i);
+                String owner = ring.get(point);
+                if (owner == null || node.compareTo(owner) < 0) {
+                    ring.put(point, node);
+                }
+            }
+        }
+    }
+
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    // null when the ring is empty
+    public String nodeFor(String key) {
+        if (ring.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash(key));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    // All nodes in the order met walking clockwise from the key: the owner first,
+    // then the node that takes the key over if the owner is removed, and so on
+    public List<String> preferenceList(String key) {
+        List<String> order = new ArrayList<>();
+        if (ring.isEmpty()) {
+            return order;
+        }
+        long start = hash(key);
+        for (String node : ring.tailMap(start, true).values()) {
+            if (!order.contains(node) && order.add(node) && order.size() == nodes.size()) {
+                return order;
+            }
+        }
+        for (String node : ring.headMap(start, false).values()) {
+            if (!order.contains(node) && order.add(node) && order.size() == nodes.size()) {
+                return order;
+            }
+        }
+        return order;
+    }
+
+    // First 8 bytes of MD5: evenly spread and identical on every device and Android version
+    static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (digest[i] & 0xff);
+            }
+            return value;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        }
+    }
+}
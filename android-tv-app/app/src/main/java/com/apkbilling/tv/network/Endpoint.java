@@ -0,0 +1,34 @@
+package com.apkbilling.tv.network;
+
+// Every REST call ApiClient makes, with its end-to-end deadline.
+// The deadline covers queueing, all retries and the body transfer. It is sized
+// to how long the answer stays useful: a heartbeat is worthless once the next
+// one is due, while a session start on bad Wi-Fi deserves more patience.
+public enum Endpoint {
+    HEALTH(EndpointClass.HEALTH, 10000),
+    DISCOVER(EndpointClass.REGISTRATION, 15000),
+    REGISTER(EndpointClass.REGISTRATION, 15000),
+    // Boot-time combination of registration, health check and session lookup
+    BATCH(EndpointClass.REGISTRATION, 15000),
+    ACTIVE_SESSION(EndpointClass.SESSION, 8000),
+    SESSION_START(EndpointClass.SESSION, 20000),
+    SESSION_STOP(EndpointClass.SESSION, 20000),
+    // Below the 15 s heartbeat interval so beats never overlap
+    HEARTBEAT(EndpointClass.HEARTBEAT, 12000);
+
+    private final EndpointClass endpointClass;
+    private final long deadlineMillis;
+
+    Endpoint(EndpointClass endpointClass, long deadlineMillis) {
+        this.endpointClass = endpointClass;
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    public EndpointClass getEndpointClass() {
+        return endpointClass;
+    }
+
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+}
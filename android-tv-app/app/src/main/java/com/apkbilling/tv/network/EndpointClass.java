@@ -0,0 +1,11 @@
+package com.apkbilling.tv.network;
+
+// Groups ApiClient endpoints that share failure handling.
+// Each class gets its own retry policy, retry budget and circuit breaker, so a
+// failing heartbeat endpoint does not block session lookups and vice versa.
+public enum EndpointClass {
+    HEALTH,         // testConnection / checkConnection
+    REGISTRATION,   // registerDevice / discoverDevice
+    SESSION,        // getActiveSession / startSession / stopSession
+    HEARTBEAT       // sendHeartbeat
+}
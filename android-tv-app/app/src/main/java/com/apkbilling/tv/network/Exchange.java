@@ -0,0 +1,61 @@
+package com.apkbilling.tv.network;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Response;
+
+// One request/response exchange as ApiClient.dispatch() runs it: a plain OkHttp call,
+// or an acknowledged emit on the WebSocket (SocketRpc). Exactly one callback method
+// is invoked, never on the caller's thread.
+interface Exchange {
+
+    interface Callback {
+        void onFailure(IOException e);
+
+        // The response body must be closed by the callback
+        void onResponse(Response response) throws IOException;
+    }
+
+    void enqueue(Callback callback);
+
+    void cancel();
+
+    boolean isCanceled();
+
+    // The regular transport; the timeout covers the whole call including the body
+    final class Http implements Exchange {
+        private final Call call;
+
+        Http(Call call, long timeoutMillis) {
+            this.call = call;
+            call.timeout().timeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void enqueue(Callback callback) {
+            call.enqueue(new okhttp3.Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    callback.onFailure(e);
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) throws IOException {
+                    callback.onResponse(response);
+                }
+            });
+        }
+
+        @Override
+        public void cancel() {
+            call.cancel();
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return call.isCanceled();
+        }
+    }
+}
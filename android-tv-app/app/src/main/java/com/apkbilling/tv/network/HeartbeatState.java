@@ -0,0 +1,76 @@
+package com.apkbilling.tv.network;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+// Delta heartbeats: the device name and location change maybe once a month, so
+// they only ride along until the server has acknowledged them. Every beat
+// carries state_version, bumped whenever those fields change locally; a beat
+// without fields is a plain liveness ping for the version the server already has.
+//
+// Fields are sent in full again when the server sets resync or reports a
+// different state_version than the one acknowledged, after a base URL change, on
+// the first beat of the process, and once an hour as a safety net for servers
+// that can't ask.
+public class HeartbeatState {
+    private static final String TAG = "HeartbeatState";
+
+    private static final long FULL_RESYNC_INTERVAL_MS = 60 * 60 * 1000L;
+
+    private String deviceName;
+    private String deviceLocation;
+    private long version = 0;
+    // Version the server has confirmed holding, 0 = nothing confirmed
+    private long acknowledgedVersion = 0;
+    private long lastFullSyncAt = 0;
+
+    // Statistics
+    private long fullBeats = 0;
+    private long pingBeats = 0;
+
+    // Fills in the version and, if the server doesn't have them yet, the fields
+    public synchronized void prepare(ApiClient.HeartbeatRequest request, String name, String location) {
+        if (version == 0 || !name.equals(deviceName) || !location.equals(deviceLocation)) {
+            deviceName = name;
+            deviceLocation = location;
+            version++;
+        }
+        request.state_version = version;
+
+        boolean stale = SystemClock.elapsedRealtime() - lastFullSyncAt >= FULL_RESYNC_INTERVAL_MS;
+        if (acknowledgedVersion != version || lastFullSyncAt == 0 || stale) {
+            request.device_name = deviceName;
+            request.device_location = deviceLocation;
+            fullBeats++;
+        } else {
+            pingBeats++;
+        }
+    }
+
+    public synchronized void onResponse(ApiClient.HeartbeatRequest sent, ApiClient.HeartbeatResponse response) {
+        if (response != null && response.resync) {
+            Log.i(TAG, "Server asked for a full heartbeat");
+            acknowledgedVersion = 0;
+            return;
+        }
+        if (response != null && response.state_version > 0 && response.state_version != sent.state_version) {
+            Log.i(TAG, "Server holds state " + response.state_version + ", expected " + sent.state_version);
+            acknowledgedVersion = 0;
+            return;
+        }
+        if (sent.device_name != null) {
+            acknowledgedVersion = sent.state_version;
+            lastFullSyncAt = SystemClock.elapsedRealtime();
+        }
+    }
+
+    // E.g. a different server: it has never seen our fields
+    public synchronized void requestResync() {
+        acknowledgedVersion = 0;
+    }
+
+    public synchronized String getStats() {
+        return "version=" + version + " acknowledged=" + acknowledgedVersion
+                + " full=" + fullBeats + " pings=" + pingBeats;
+    }
+}
@@ -0,0 +1,421 @@
+package com.apkbilling.tv.network;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.EventListener;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+// Process-wide HTTP engine shared by every ApiClient instance.
+// Activities and services come and go, but the connection pool and dispatcher
+// live as long as the process so heartbeats and session checks reuse the same
+// keep-alive connections to the backend.
+public final class HttpEngine {
+    private static final String TAG = "HttpEngine";
+
+    // A TV talks to a single backend, a handful of idle sockets is plenty
+    private static final int MAX_IDLE_CONNECTIONS = 4;
+    // Longer than the heartbeat interval so the socket survives between beats
+    private static final long KEEP_ALIVE_MINUTES = 5;
+    private static final int MAX_REQUESTS = 16;
+    private static final int MAX_REQUESTS_PER_HOST = 4;
+
+    // Startup fires a session lookup and a heartbeat side by side, so warm two sockets
+    private static final int PREWARM_CONNECTIONS = 2;
+    private static final long PREWARM_TIMEOUT_MS = 5000;
+    // Repeated triggers (activity recreated, duplicate network callbacks) reuse a recent warm-up
+    private static final long PREWARM_DEDUPE_MS = 30000;
+    private static final long NETWORK_CHANGE_DEDUPE_MS = 2000;
+
+    private static volatile HttpEngine instance;
+
+    private final ConnectionPool connectionPool;
+    private final Dispatcher dispatcher;
+    private final OkHttpClient client;
+    // Same pool and dispatcher, but speaks HTTP/2 without upgrade on cleartext URLs
+    private final OkHttpClient priorKnowledgeClient;
+    // Timers for retries and other delayed network work, never the UI thread
+    private final ScheduledExecutorService scheduler;
+    // Priority lanes in front of the dispatcher
+    private final RequestScheduler requestScheduler;
+
+    // Opt-in h2c: all calls to a LAN backend multiplexed over one socket
+    private volatile boolean priorKnowledgeEnabled = false;
+    // host:port that answered h2c at least once, or that rejected it
+    private final Set<String> priorKnowledgeHosts = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final Set<String> http1OnlyHosts = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    // Last warm-up per host:port
+    private final Map<String, Long> lastPrewarm = new HashMap<>();
+
+    // Phase latency per endpoint
+    private final CallMetrics metrics = new CallMetrics();
+
+    // Pool statistics
+    private final AtomicLong poolHits = new AtomicLong();
+    private final AtomicLong poolMisses = new AtomicLong();
+    private final AtomicLong connectFailures = new AtomicLong();
+
+    private HttpEngine() {
+        connectionPool = new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES);
+
+        dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(MAX_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+
+        client = new OkHttpClient.Builder()
+                .connectionPool(connectionPool)
+                .dispatcher(dispatcher)
+                .eventListenerFactory(call -> new CallEventListener())
+                .connectTimeout(5, TimeUnit.SECONDS)
+                .readTimeout(10, TimeUnit.SECONDS)
+                .writeTimeout(10, TimeUnit.SECONDS)
+                .retryOnConnectionFailure(true)
+                .build();
+
+        priorKnowledgeClient = client.newBuilder()
+                .protocols(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE))
+                .build();
+
+        // Telemetry may take at most half of the per-host slots. Tasks start on the
+        // dispatcher's threads, where their OkHttp callbacks run as well.
+        requestScheduler = new RequestScheduler(MAX_REQUESTS_PER_HOST, MAX_REQUESTS_PER_HOST / 2,
+                dispatcher.executorService());
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "HttpEngine-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Log.d(TAG, "HTTP engine created (idle=" + MAX_IDLE_CONNECTIONS + ", keepAlive=" + KEEP_ALIVE_MINUTES + "m)");
+    }
+
+    public static HttpEngine getInstance() {
+        if (instance == null) {
+            synchronized (HttpEngine.class) {
+                if (instance == null) {
+                    instance = new HttpEngine();
+                }
+            }
+        }
+        return instance;
+    }
+
+    public OkHttpClient getClient() {
+        return client;
+    }
+
+    public void setPriorKnowledgeEnabled(boolean enabled) {
+        if (enabled && !priorKnowledgeEnabled) {
+            // Give hosts that fell back earlier another chance, the server may have been upgraded
+            http1OnlyHosts.clear();
+        }
+        priorKnowledgeEnabled = enabled;
+    }
+
+    public boolean isPriorKnowledgeEnabled() {
+        return priorKnowledgeEnabled;
+    }
+
+    // Client to use for a URL: h2c only for cleartext hosts that haven't rejected it
+    public OkHttpClient clientFor(HttpUrl url) {
+        if (priorKnowledgeEnabled && !url.isHttps() && !http1OnlyHosts.contains(hostKey(url))) {
+            return priorKnowledgeClient;
+        }
+        return client;
+    }
+
+    public boolean isPriorKnowledge(OkHttpClient selected) {
+        return selected == priorKnowledgeClient;
+    }
+
+    public void onPriorKnowledgeSuccess(HttpUrl url) {
+        if (priorKnowledgeHosts.add(hostKey(url))) {
+            Log.i(TAG, "h2c prior knowledge accepted by " + hostKey(url));
+        }
+    }
+
+    // Returns true if the host is now treated as HTTP/1.1 only and the call should be resent.
+    // A server that only speaks HTTP/1.1 answers the h2 preface with a 400 and closes, which
+    // surfaces as a protocol IOException. Refused connections, DNS failures and timeouts say
+    // nothing about the protocol, and neither does any failure once h2c has worked for the host.
+    public boolean onPriorKnowledgeFailure(HttpUrl url, IOException e) {
+        String host = hostKey(url);
+        if (priorKnowledgeHosts.contains(host)
+                || e instanceof ConnectException
+                || e instanceof UnknownHostException
+                || e instanceof InterruptedIOException) {
+            return false;
+        }
+        if (http1OnlyHosts.add(host)) {
+            Log.w(TAG, "h2c rejected by " + host + ", falling back to HTTP/1.1: " + e.getMessage());
+        }
+        return true;
+    }
+
+    private static String hostKey(HttpUrl url) {
+        return url.host() + ":" + url.port();
+    }
+
+    public Dispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    public RequestScheduler getRequestScheduler() {
+        return requestScheduler;
+    }
+
+    public CallMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Pool hit = call was served by an already open connection
+    public long getPoolHits() {
+        return poolHits.get();
+    }
+
+    // Pool miss = call had to open a new TCP connection
+    public long getPoolMisses() {
+        return poolMisses.get();
+    }
+
+    public long getConnectFailures() {
+        return connectFailures.get();
+    }
+
+    public int getIdleConnectionCount() {
+        return connectionPool.idleConnectionCount();
+    }
+
+    public int getConnectionCount() {
+        return connectionPool.connectionCount();
+    }
+
+    public Stats getStats() {
+        Stats stats = new Stats();
+        stats.poolHits = poolHits.get();
+        stats.poolMisses = poolMisses.get();
+        stats.connectFailures = connectFailures.get();
+        stats.idleConnections = connectionPool.idleConnectionCount();
+        stats.totalConnections = connectionPool.connectionCount();
+        stats.runningCalls = dispatcher.runningCallsCount();
+        stats.queuedCalls = dispatcher.queuedCallsCount();
+        return stats;
+    }
+
+    // Drop idle sockets, e.g. after the network changed and they are dead anyway
+    public void evictIdleConnections() {
+        connectionPool.evictAll();
+    }
+
+    // Opens connections to the backend ahead of the first real call, so that call
+    // skips TCP (and TLS) setup. Cheap HEAD requests leave the sockets idle in the
+    // pool, where keep-alive holds them. After a network change the old sockets are
+    // dead, so they are evicted first. This also settles h2c vs HTTP/1.1 early.
+    public void prewarm(HttpUrl url, boolean networkChanged) {
+        String host = hostKey(url);
+        synchronized (lastPrewarm) {
+            long now = SystemClock.elapsedRealtime();
+            Long last = lastPrewarm.get(host);
+            long window = networkChanged ? NETWORK_CHANGE_DEDUPE_MS : PREWARM_DEDUPE_MS;
+            if (last != null && now - last < window) {
+                return;
+            }
+            lastPrewarm.put(host, now);
+        }
+
+        if (networkChanged) {
+            evictIdleConnections();
+        }
+
+        OkHttpClient selected = clientFor(url);
+        boolean multiplexed = isPriorKnowledge(selected);
+        int connections = multiplexed ? 1 : PREWARM_CONNECTIONS;
+        Log.d(TAG, "Pre-warming " + connections + " connection(s) to " + host);
+
+        for (int i = 0; i < connections; i++) {
+            Call call = selected.newCall(new Request.Builder().url(url).head().tag(Prewarm.class, Prewarm.CALL).build());
+            call.timeout().timeout(PREWARM_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            call.enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    if (multiplexed) {
+                        onPriorKnowledgeFailure(url, e);
+                    }
+                    Log.d(TAG, "Pre-warm to " + host + " failed: " + e.getMessage());
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    if (multiplexed) {
+                        onPriorKnowledgeSuccess(url);
+                    }
+                    response.close();
+                }
+            });
+        }
+    }
+
+    // Tags warm-up calls, which stay out of the pool hit/miss figures
+    private enum Prewarm {
+        CALL
+    }
+
+    public static class Stats {
+        public long poolHits;
+        public long poolMisses;
+        public long connectFailures;
+        public int idleConnections;
+        public int totalConnections;
+        public int runningCalls;
+        public int queuedCalls;
+
+        public double getHitRatio() {
+            long total = poolHits + poolMisses;
+            return total == 0 ? 0.0 : (double) poolHits / total;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + poolHits +
+                    " misses=" + poolMisses +
+                    " connectFailures=" + connectFailures +
+                    " idle=" + idleConnections +
+                    " total=" + totalConnections +
+                    " running=" + runningCalls +
+                    " queued=" + queuedCalls;
+        }
+    }
+
+    // One listener per call. Counts pool hits (a call that never reaches connectStart
+    // was served from the pool) and times each phase for the endpoint the call is tagged with.
+    private class CallEventListener extends EventListener {
+        private boolean connecting = false;
+
+        private long callStartNanos;
+        private long dnsStartNanos;
+        private long connectStartNanos;
+        private long requestStartNanos;
+        private long bodyStartNanos;
+
+        private void record(Call call, CallMetrics.Phase phase, long startNanos) {
+            Endpoint endpoint = call.request().tag(Endpoint.class);
+            if (endpoint != null && startNanos != 0) {
+                metrics.record(endpoint, phase, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            }
+        }
+
+        @Override
+        public void callStart(Call call) {
+            callStartNanos = System.nanoTime();
+        }
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            dnsStartNanos = System.nanoTime();
+        }
+
+        @Override
+        public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+            record(call, CallMetrics.Phase.DNS, dnsStartNanos);
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            connecting = true;
+            connectStartNanos = System.nanoTime();
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+            record(call, CallMetrics.Phase.CONNECT, connectStartNanos);
+        }
+
+        @Override
+        public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy,
+                                  Protocol protocol, IOException ioe) {
+            connectFailures.incrementAndGet();
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            if (call.request().tag(Prewarm.class) != null) {
+                // Opening connections is the point of a warm-up; only real calls count
+                connecting = false;
+                return;
+            }
+            if (connecting) {
+                poolMisses.incrementAndGet();
+            } else {
+                poolHits.incrementAndGet();
+            }
+            connecting = false;
+        }
+
+        @Override
+        public void requestHeadersStart(Call call) {
+            // A retried or redirected exchange restarts the clock
+            requestStartNanos = System.nanoTime();
+        }
+
+        @Override
+        public void responseHeadersStart(Call call) {
+            record(call, CallMetrics.Phase.TTFB, requestStartNanos);
+        }
+
+        @Override
+        public void responseBodyStart(Call call) {
+            bodyStartNanos = System.nanoTime();
+        }
+
+        @Override
+        public void responseBodyEnd(Call call, long byteCount) {
+            record(call, CallMetrics.Phase.BODY, bodyStartNanos);
+        }
+
+        @Override
+        public void callEnd(Call call) {
+            record(call, CallMetrics.Phase.TOTAL, callStartNanos);
+        }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            Endpoint endpoint = call.request().tag(Endpoint.class);
+            if (endpoint != null) {
+                metrics.recordFailure(endpoint);
+            }
+        }
+    }
+}
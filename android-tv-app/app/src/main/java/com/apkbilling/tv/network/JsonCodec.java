@@ -0,0 +1,76 @@
+package com.apkbilling.tv.network;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+
+// Shared Gson instance and pre-resolved adapters for the ApiClient payloads.
+// Types are resolved once per process instead of building a new TypeToken
+// subclass on every response, and bodies are streamed straight from the
+// Okio source instead of being buffered into a String first.
+// The data classes are handled by ApiTypeAdapters, so no reflection runs on the hot path.
+public final class JsonCodec {
+    public static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    public static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapterFactory(ApiTypeAdapters.FACTORY)
+            .create();
+
+    // Response envelopes
+    public static final TypeAdapter<ApiClient.ApiResponse<ApiClient.DeviceResponse>> DEVICE_RESPONSE =
+            adapter(TypeToken.getParameterized(ApiClient.ApiResponse.class, ApiClient.DeviceResponse.class));
+    public static final TypeAdapter<ApiClient.ApiResponse<ApiClient.SessionResponse>> SESSION_RESPONSE =
+            adapter(TypeToken.getParameterized(ApiClient.ApiResponse.class, ApiClient.SessionResponse.class));
+    public static final TypeAdapter<ApiClient.ApiResponse<ApiClient.HeartbeatResponse>> HEARTBEAT_RESPONSE =
+            adapter(TypeToken.getParameterized(ApiClient.ApiResponse.class, ApiClient.HeartbeatResponse.class));
+    public static final TypeAdapter<ApiClient.ApiResponse<ApiClient.BatchResponse>> BATCH_RESPONSE =
+            adapter(TypeToken.getParameterized(ApiClient.ApiResponse.class, ApiClient.BatchResponse.class));
+
+    // Request bodies
+    public static final TypeAdapter<ApiClient.DeviceRequest> DEVICE_REQUEST =
+            GSON.getAdapter(ApiClient.DeviceRequest.class);
+    public static final TypeAdapter<ApiClient.SessionStartRequest> SESSION_START_REQUEST =
+            GSON.getAdapter(ApiClient.SessionStartRequest.class);
+    public static final TypeAdapter<ApiClient.SessionStopRequest> SESSION_STOP_REQUEST =
+            GSON.getAdapter(ApiClient.SessionStopRequest.class);
+    public static final TypeAdapter<ApiClient.HeartbeatRequest> HEARTBEAT_REQUEST =
+            GSON.getAdapter(ApiClient.HeartbeatRequest.class);
+    public static final TypeAdapter<ApiClient.BatchRequest> BATCH_REQUEST =
+            GSON.getAdapter(ApiClient.BatchRequest.class);
+
+    private JsonCodec() {
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> TypeAdapter<T> adapter(TypeToken<?> typeToken) {
+        return (TypeAdapter<T>) GSON.getAdapter(typeToken);
+    }
+
+    // Decode directly from the response source; the caller still owns (and closes) the response
+    public static <T> T read(ResponseBody body, TypeAdapter<T> adapter) throws IOException {
+        JsonReader reader = GSON.newJsonReader(body.charStream());
+        return adapter.read(reader);
+    }
+
+    // Encode into an Okio buffer without an intermediate String
+    public static <T> RequestBody write(T value, TypeAdapter<T> adapter) throws IOException {
+        Buffer buffer = new Buffer();
+        JsonWriter writer = GSON.newJsonWriter(
+                new OutputStreamWriter(buffer.outputStream(), StandardCharsets.UTF_8));
+        adapter.write(writer, value);
+        writer.flush();
+        return RequestBody.create(buffer.readByteString(), JSON);
+    }
+}
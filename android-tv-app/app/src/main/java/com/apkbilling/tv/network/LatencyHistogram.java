@@ -0,0 +1,85 @@
+package com.apkbilling.tv.network;
+
+import java.util.Locale;
+
+// Fixed-bucket latency histogram.
+// Memory does not grow with the number of samples: each bucket is a counter
+// and percentiles are answered with the upper bound of the bucket they fall
+// in. Bounds are roughly logarithmic, which keeps the relative error similar
+// for a 3 ms DNS lookup and a 4 s body transfer.
+public class LatencyHistogram {
+
+    // Upper bounds in milliseconds; the last bucket catches everything slower
+    private static final long[] BOUNDS = {
+            1, 2, 5, 10, 20, 35, 50, 75, 100, 150, 200, 300, 500, 750,
+            1000, 1500, 2000, 3000, 5000, 7500, 10000, 15000, 20000
+    };
+
+    private final long[] counts = new long[BOUNDS.length + 1];
+    private long count = 0;
+    private long sum = 0;
+    private long max = 0;
+
+    public synchronized void record(long millis) {
+        if (millis < 0) {
+            return;
+        }
+        counts[bucketFor(millis)]++;
+        count++;
+        sum += millis;
+        max = Math.max(max, millis);
+    }
+
+    private static int bucketFor(long millis) {
+        for (int i = 0; i < BOUNDS.length; i++) {
+            if (millis <= BOUNDS[i]) {
+                return i;
+            }
+        }
+        return BOUNDS.length;
+    }
+
+    // quantile in [0, 1]; 0 when nothing was recorded
+    public synchronized long percentile(double quantile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * count);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0) {
+                // The overflow bucket has no upper bound, the slowest sample is the best answer
+                return i < BOUNDS.length ? Math.min(BOUNDS[i], max) : max;
+            }
+        }
+        return max;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getMean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    public synchronized long getMax() {
+        return max;
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = 0;
+        }
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "n=%d p50=%d p95=%d p99=%d max=%d",
+                count, percentile(0.50), percentile(0.95), percentile(0.99), max);
+    }
+}
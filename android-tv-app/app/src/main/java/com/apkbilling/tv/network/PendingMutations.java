@@ -0,0 +1,88 @@
+package com.apkbilling.tv.network;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.Map;
+import java.util.UUID;
+
+// Idempotency keys of session mutations that have not succeeded yet.
+// Entries are keyed by an operation id that names one user action (a purchase,
+// the stop of one session), never by the payload, so a second identical
+// purchase is a new operation with a new key. A resend of the same operation -
+// also after a process restart - reuses the stored key until a 2xx clears it.
+public class PendingMutations {
+    private static final String TAG = "PendingMutations";
+    private static final String PREFS_NAME = "APKBillingPendingMutations";
+
+    // Only drops operations nobody resent; a resend always finds its key before this
+    private static final long KEY_TTL_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private static volatile PendingMutations instance;
+
+    private final SharedPreferences prefs;
+
+    private PendingMutations(Context context) {
+        this.prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        purgeExpired();
+    }
+
+    public static PendingMutations getInstance(Context context) {
+        if (instance == null) {
+            synchronized (PendingMutations.class) {
+                if (instance == null) {
+                    instance = new PendingMutations(context);
+                }
+            }
+        }
+        return instance;
+    }
+
+    // A fresh id for a new user action; the caller keeps it for any resend of that action
+    public static String newOperationId() {
+        return UUID.randomUUID().toString();
+    }
+
+    // The pending key of this operation, created and persisted on first use
+    public synchronized String keyFor(String operation) {
+        String stored = prefs.getString(operation, null);
+        if (stored != null) {
+            String[] parts = stored.split("\\|", 2);
+            if (parts.length == 2 && !isExpired(parts[1])) {
+                Log.d(TAG, "Reusing idempotency key for " + operation);
+                return parts[0];
+            }
+        }
+
+        String key = UUID.randomUUID().toString();
+        // commit() rather than apply(): the key must survive a crash right after the request is sent
+        prefs.edit().putString(operation, key + "|" + System.currentTimeMillis()).commit();
+        return key;
+    }
+
+    // The mutation succeeded, nothing left to resend
+    public synchronized void complete(String operation) {
+        prefs.edit().remove(operation).apply();
+    }
+
+    private void purgeExpired() {
+        SharedPreferences.Editor editor = prefs.edit();
+        for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+            Object value = entry.getValue();
+            String[] parts = value instanceof String ? ((String) value).split("\\|", 2) : new String[0];
+            if (parts.length != 2 || isExpired(parts[1])) {
+                editor.remove(entry.getKey());
+            }
+        }
+        editor.apply();
+    }
+
+    private static boolean isExpired(String createdAt) {
+        try {
+            return System.currentTimeMillis() - Long.parseLong(createdAt) > KEY_TTL_MILLIS;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.apkbilling.tv.network;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.IOException;
+
+import okio.ByteString;
+
+// Remembers the last identity the server accepted per operation (register,
+// discover) as a fingerprint of the request and the server it went to.
+// MainActivity is relaunched many times a day by the kiosk service; as long as
+// nothing about the device changed and the TTL hasn't run out, those launches
+// reuse the stored answer instead of writing the device row again.
+public class RegistrationCache {
+    private static final String TAG = "RegistrationCache";
+    private static final String PREFS_NAME = "APKBillingRegistration";
+
+    // Used when the server doesn't advertise registration_ttl_seconds
+    private static final long DEFAULT_TTL_MILLIS = 12 * 60 * 60 * 1000L;
+    private static final long MAX_TTL_MILLIS = 7 * 24 * 60 * 60 * 1000L;
+
+    private static volatile RegistrationCache instance;
+
+    private final SharedPreferences prefs;
+
+    private RegistrationCache(Context context) {
+        this.prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public static RegistrationCache getInstance(Context context) {
+        if (instance == null) {
+            synchronized (RegistrationCache.class) {
+                if (instance == null) {
+                    instance = new RegistrationCache(context);
+                }
+            }
+        }
+        return instance;
+    }
+
+    // Everything the server stores about the device, plus where it was stored
+    public static String fingerprint(String baseUrl, ApiClient.DeviceRequest request) {
+        String identity = baseUrl + '\n' + request.device_id + '\n' + request.device_name + '\n'
+                + request.location + '\n' + request.device_type + '\n' + request.screen_resolution + '\n'
+                + request.os_version + '\n' + request.app_version;
+        return ByteString.encodeUtf8(identity).sha256().hex();
+    }
+
+    // The stored answer if the identity is unchanged and still within its TTL, else null
+    public synchronized ApiClient.DeviceResponse lookup(String operation, String fingerprint) {
+        if (!fingerprint.equals(prefs.getString(operation + ".fingerprint", null))) {
+            return null;
+        }
+        long age = System.currentTimeMillis() - prefs.getLong(operation + ".at", 0);
+        if (age < 0 || age >= prefs.getLong(operation + ".ttl", DEFAULT_TTL_MILLIS)) {
+            return null;
+        }
+        try {
+            String json = prefs.getString(operation + ".response", null);
+            return json != null ? JsonCodec.GSON.getAdapter(ApiClient.DeviceResponse.class).fromJson(json) : null;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Dropping unreadable cached " + operation + " response", e);
+            invalidate(operation);
+            return null;
+        }
+    }
+
+    public synchronized void store(String operation, String fingerprint, ApiClient.DeviceResponse response) {
+        long ttl = response.registration_ttl_seconds > 0
+                ? Math.min(response.registration_ttl_seconds * 1000, MAX_TTL_MILLIS)
+                : DEFAULT_TTL_MILLIS;
+        prefs.edit()
+                .putString(operation + ".fingerprint", fingerprint)
+                .putLong(operation + ".at", System.currentTimeMillis())
+                .putLong(operation + ".ttl", ttl)
+                .putString(operation + ".response", JsonCodec.GSON.getAdapter(ApiClient.DeviceResponse.class).toJson(response))
+                .apply();
+    }
+
+    public synchronized void invalidate(String operation) {
+        prefs.edit()
+                .remove(operation + ".fingerprint")
+                .remove(operation + ".at")
+                .remove(operation + ".ttl")
+                .remove(operation + ".response")
+                .apply();
+    }
+
+    // E.g. the server lost the device; the next launch registers again
+    public synchronized void clear() {
+        prefs.edit().clear().apply();
+    }
+}
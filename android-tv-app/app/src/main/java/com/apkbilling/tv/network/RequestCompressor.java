@@ -0,0 +1,162 @@
+package com.apkbilling.tv.network;
+
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+// Gzip for larger request bodies (heartbeats carrying metrics, diagnostics).
+// Compression is optimistic: the backend's JSON parser inflates gzip bodies,
+// and a server that can't answers 415, after which the host gets plain bodies
+// for the rest of the process. Compression CPU is capped per time window so a
+// slow TV box never trades too much CPU for uplink bytes.
+public class RequestCompressor {
+    private static final String TAG = "RequestCompressor";
+
+    // Below this the gzip header and CPU cost aren't worth it
+    private static final long MIN_BYTES = 1024;
+    // Bodies that barely shrink are sent plain
+    private static final double MAX_USEFUL_RATIO = 0.9;
+    // At most this much CPU time spent compressing per window
+    private static final long CPU_BUDGET_NANOS = 50_000_000L;
+    private static final long BUDGET_WINDOW_MS = 60_000;
+
+    private static volatile RequestCompressor instance;
+
+    private final Set<String> unsupportedHosts = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    private long windowStart = 0;
+    private long windowCpuNanos = 0;
+
+    // Statistics
+    private long compressed = 0;
+    private long skippedForBudget = 0;
+    private long skippedPoorRatio = 0;
+    private long bytesIn = 0;
+    private long bytesOut = 0;
+    private long totalCpuNanos = 0;
+
+    private RequestCompressor() {
+    }
+
+    public static RequestCompressor getInstance() {
+        if (instance == null) {
+            synchronized (RequestCompressor.class) {
+                if (instance == null) {
+                    instance = new RequestCompressor();
+                }
+            }
+        }
+        return instance;
+    }
+
+    // Returns a gzip-encoded copy of the request, or the request itself if compressing
+    // isn't worthwhile, isn't supported by the host, or would exceed the CPU budget
+    public Request compress(Request request) {
+        RequestBody body = request.body();
+        if (body == null || request.header("Content-Encoding") != null
+                || unsupportedHosts.contains(hostKey(request.url()))) {
+            return request;
+        }
+
+        try {
+            long length = body.contentLength();
+            if (length >= 0 && length < MIN_BYTES) {
+                return request;
+            }
+            if (!hasCpuBudget()) {
+                synchronized (this) {
+                    skippedForBudget++;
+                }
+                return request;
+            }
+
+            long cpuStart = cpuNanos();
+            Buffer gzipped = new Buffer();
+            BufferedSink sink = Okio.buffer(new GzipSink(gzipped));
+            body.writeTo(sink);
+            sink.close();
+            long cpu = cpuNanos() - cpuStart;
+
+            long plainSize = length >= 0 ? length : -1;
+            long gzipSize = gzipped.size();
+            double ratio = plainSize > 0 ? (double) gzipSize / plainSize : 1.0;
+            synchronized (this) {
+                windowCpuNanos += cpu;
+                totalCpuNanos += cpu;
+                if (ratio > MAX_USEFUL_RATIO) {
+                    skippedPoorRatio++;
+                } else {
+                    compressed++;
+                    bytesIn += plainSize;
+                    bytesOut += gzipSize;
+                }
+            }
+            Log.d(TAG, String.format(Locale.US, "%s: %d -> %d bytes (%.2f) in %.2f ms CPU",
+                    request.url().encodedPath(), plainSize, gzipSize, ratio, cpu / 1e6));
+
+            if (ratio > MAX_USEFUL_RATIO) {
+                return request;
+            }
+            MediaType contentType = body.contentType();
+            return request.newBuilder()
+                    .header("Content-Encoding", "gzip")
+                    .method(request.method(), RequestBody.create(gzipped.readByteString(), contentType))
+                    .build();
+        } catch (IOException e) {
+            Log.w(TAG, "Compression failed, sending plain body", e);
+            return request;
+        }
+    }
+
+    public static boolean isCompressed(Request request) {
+        return "gzip".equals(request.header("Content-Encoding"));
+    }
+
+    // Server answered 415 to a gzip body: stop compressing for this host
+    public void onUnsupported(HttpUrl url) {
+        if (unsupportedHosts.add(hostKey(url))) {
+            Log.w(TAG, "Server " + hostKey(url) + " rejected gzip request bodies");
+        }
+    }
+
+    private synchronized boolean hasCpuBudget() {
+        long now = SystemClock.elapsedRealtime();
+        if (now - windowStart >= BUDGET_WINDOW_MS) {
+            windowStart = now;
+            windowCpuNanos = 0;
+        }
+        return windowCpuNanos < CPU_BUDGET_NANOS;
+    }
+
+    // Thread CPU time where the platform supports it, wall time otherwise
+    private static long cpuNanos() {
+        long cpu = Debug.threadCpuTimeNanos();
+        return cpu >= 0 ? cpu : System.nanoTime();
+    }
+
+    private static String hostKey(HttpUrl url) {
+        return url.host() + ":" + url.port();
+    }
+
+    public synchronized String getStats() {
+        double ratio = bytesIn == 0 ? 1.0 : (double) bytesOut / bytesIn;
+        return String.format(Locale.US,
+                "compressed=%d bytes=%d->%d ratio=%.2f cpu=%.1fms skippedBudget=%d skippedRatio=%d",
+                compressed, bytesIn, bytesOut, ratio, totalCpuNanos / 1e6, skippedForBudget, skippedPoorRatio);
+    }
+}
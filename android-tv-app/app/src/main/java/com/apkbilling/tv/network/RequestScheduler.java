@@ -0,0 +1,180 @@
+package com.apkbilling.tv.network;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+// Priority admission in front of the OkHttp dispatcher.
+// OkHttp queues calls FIFO, so on a congested link a backlog of heartbeats can
+// delay a stopSession that actually affects billing. Calls are instead held in
+// one queue per lane and only handed to OkHttp when a slot is free, highest
+// lane first. Telemetry can be coalesced: a newer call with the same key
+// replaces the one still waiting in the queue.
+// Tasks are started and dropped on the executor, never on the thread that
+// submitted them (often the UI thread) or the one that finished a call.
+public class RequestScheduler {
+    private static final String TAG = "RequestScheduler";
+
+    public enum Lane {
+        CRITICAL,   // session start/stop - affects billing
+        NORMAL,     // session lookups, registration, connection tests
+        TELEMETRY   // heartbeats
+    }
+
+    public interface Task {
+        // Start the call; the scheduler slot must be released with finish() when it completes
+        void start();
+
+        // The task was replaced by a newer one with the same coalesce key before it started
+        void dropped();
+    }
+
+    private static class Entry {
+        final Task task;
+        final String coalesceKey;
+        final long enqueuedAt;
+
+        Entry(Task task, String coalesceKey, long enqueuedAt) {
+            this.task = task;
+            this.coalesceKey = coalesceKey;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    private static class LaneStats {
+        long started = 0;
+        long dropped = 0;
+        long totalWaitMillis = 0;
+        long maxWaitMillis = 0;
+        int inFlight = 0;
+    }
+
+    private final int maxInFlight;
+    // Telemetry never occupies more than this many slots
+    private final int maxTelemetryInFlight;
+    private final Executor executor;
+
+    private final Map<Lane, ArrayDeque<Entry>> queues = new EnumMap<>(Lane.class);
+    private final Map<Lane, LaneStats> stats = new EnumMap<>(Lane.class);
+    private int inFlight = 0;
+
+    public RequestScheduler(int maxInFlight, int maxTelemetryInFlight, Executor executor) {
+        this.executor = executor;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.maxTelemetryInFlight = Math.max(1, Math.min(maxTelemetryInFlight, this.maxInFlight));
+        for (Lane lane : Lane.values()) {
+            queues.put(lane, new ArrayDeque<>());
+            stats.put(lane, new LaneStats());
+        }
+    }
+
+    // coalesceKey may be null; only TELEMETRY tasks are coalesced
+    public void submit(Lane lane, String coalesceKey, Task task) {
+        List<Entry> superseded = new ArrayList<>();
+        synchronized (this) {
+            ArrayDeque<Entry> queue = queues.get(lane);
+            if (lane == Lane.TELEMETRY && coalesceKey != null) {
+                Iterator<Entry> iterator = queue.iterator();
+                while (iterator.hasNext()) {
+                    Entry entry = iterator.next();
+                    if (coalesceKey.equals(entry.coalesceKey)) {
+                        iterator.remove();
+                        stats.get(lane).dropped++;
+                        superseded.add(entry);
+                    }
+                }
+            }
+            queue.addLast(new Entry(task, coalesceKey, SystemClock.elapsedRealtime()));
+        }
+
+        for (Entry entry : superseded) {
+            Log.d(TAG, "Dropping stale " + lane + " request: " + entry.coalesceKey);
+            executor.execute(entry.task::dropped);
+        }
+        drain();
+    }
+
+    // Must be called exactly once for every started task
+    public void finish(Lane lane) {
+        synchronized (this) {
+            inFlight--;
+            stats.get(lane).inFlight--;
+        }
+        drain();
+    }
+
+    private void drain() {
+        while (true) {
+            Entry next;
+            synchronized (this) {
+                next = pollNext();
+            }
+            if (next == null) {
+                return;
+            }
+            executor.execute(next.task::start);
+        }
+    }
+
+    // Caller holds the lock
+    private Entry pollNext() {
+        for (Lane lane : Lane.values()) {
+            ArrayDeque<Entry> queue = queues.get(lane);
+            if (queue.isEmpty()) {
+                continue;
+            }
+            LaneStats laneStats = stats.get(lane);
+            // Session mutations may use one extra slot so they never wait behind telemetry
+            int limit = lane == Lane.CRITICAL ? maxInFlight + 1 : maxInFlight;
+            if (inFlight >= limit) {
+                continue;
+            }
+            if (lane == Lane.TELEMETRY && laneStats.inFlight >= maxTelemetryInFlight) {
+                continue;
+            }
+
+            Entry entry = queue.pollFirst();
+            long waited = SystemClock.elapsedRealtime() - entry.enqueuedAt;
+            laneStats.started++;
+            laneStats.totalWaitMillis += waited;
+            laneStats.maxWaitMillis = Math.max(laneStats.maxWaitMillis, waited);
+            laneStats.inFlight++;
+            inFlight++;
+            return entry;
+        }
+        return null;
+    }
+
+    public synchronized int getQueueDepth(Lane lane) {
+        return queues.get(lane).size();
+    }
+
+    public synchronized long getAverageWaitMillis(Lane lane) {
+        LaneStats laneStats = stats.get(lane);
+        return laneStats.started == 0 ? 0 : laneStats.totalWaitMillis / laneStats.started;
+    }
+
+    public synchronized long getMaxWaitMillis(Lane lane) {
+        return stats.get(lane).maxWaitMillis;
+    }
+
+    public synchronized String getStats() {
+        StringBuilder sb = new StringBuilder();
+        for (Lane lane : Lane.values()) {
+            LaneStats laneStats = stats.get(lane);
+            long avgWait = laneStats.started == 0 ? 0 : laneStats.totalWaitMillis / laneStats.started;
+            sb.append(String.format(Locale.US, "%s: queued=%d inFlight=%d started=%d dropped=%d avgWait=%dms maxWait=%dms%n",
+                    lane, queues.get(lane).size(), laneStats.inFlight, laneStats.started,
+                    laneStats.dropped, avgWait, laneStats.maxWaitMillis));
+        }
+        return sb.toString();
+    }
+}
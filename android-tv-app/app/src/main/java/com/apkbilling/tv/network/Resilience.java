@@ -0,0 +1,175 @@
+package com.apkbilling.tv.network;
+
+import android.util.Log;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Process-wide retry, rate limit, backpressure and circuit breaker state, one set per endpoint class.
+// Shared across ApiClient instances so an open circuit seen by the background
+// service also short-circuits MainActivity, and the UI can show
+// "server recovering" instead of flapping between connected/failed.
+public final class Resilience {
+    private static final String TAG = "Resilience";
+
+    // Fraction of normal traffic that may be spent on retries
+    private static final double RETRY_BUDGET_RATIO = 0.2;
+    private static final double RETRY_BUDGET_MAX_TOKENS = 10;
+
+    // Outbound request budgets: comfortably above normal traffic (heartbeat every 15 s,
+    // session check every 10 s), far below what a restart or retry loop produces
+    private static final double HEALTH_RATE_PER_MINUTE = 12;
+    private static final int HEALTH_BURST = 4;
+    private static final double REGISTRATION_RATE_PER_MINUTE = 6;
+    private static final int REGISTRATION_BURST = 3;
+    private static final double SESSION_RATE_PER_MINUTE = 20;
+    private static final int SESSION_BURST = 10;
+    private static final double HEARTBEAT_RATE_PER_MINUTE = 8;
+    private static final int HEARTBEAT_BURST = 4;
+
+    private static final int FAILURE_THRESHOLD = 5;
+    private static final long OPEN_MILLIS = 10000;
+
+    private static volatile Resilience instance;
+
+    private final Map<EndpointClass, RetryPolicy> policies = new EnumMap<>(EndpointClass.class);
+    private final Map<EndpointClass, RetryBudget> budgets = new EnumMap<>(EndpointClass.class);
+    private final Map<EndpointClass, CircuitBreaker> breakers = new EnumMap<>(EndpointClass.class);
+    private final Map<EndpointClass, TokenBucket> rateLimits = new EnumMap<>(EndpointClass.class);
+    private final Map<EndpointClass, Backpressure> backpressure = new EnumMap<>(EndpointClass.class);
+    private final CopyOnWriteArrayList<CircuitBreaker.StateListener> listeners = new CopyOnWriteArrayList<>();
+    private final Random random = new Random();
+
+    private Resilience() {
+        // Connection tests are user driven: report the real result right away
+        policies.put(EndpointClass.HEALTH, RetryPolicy.NONE);
+        policies.put(EndpointClass.REGISTRATION, new RetryPolicy(3, 500, 8000));
+        policies.put(EndpointClass.SESSION, new RetryPolicy(2, 250, 4000));
+        // A heartbeat is replaced by the next one in 15 s anyway
+        policies.put(EndpointClass.HEARTBEAT, new RetryPolicy(1, 1000, 5000));
+
+        rateLimits.put(EndpointClass.HEALTH, new TokenBucket(HEALTH_RATE_PER_MINUTE, HEALTH_BURST));
+        rateLimits.put(EndpointClass.REGISTRATION, new TokenBucket(REGISTRATION_RATE_PER_MINUTE, REGISTRATION_BURST));
+        rateLimits.put(EndpointClass.SESSION, new TokenBucket(SESSION_RATE_PER_MINUTE, SESSION_BURST));
+        rateLimits.put(EndpointClass.HEARTBEAT, new TokenBucket(HEARTBEAT_RATE_PER_MINUTE, HEARTBEAT_BURST));
+
+        CircuitBreaker.StateListener dispatch = (endpointClass, state) -> {
+            Log.w(TAG, "Circuit " + endpointClass + " -> " + state);
+            for (CircuitBreaker.StateListener listener : listeners) {
+                listener.onStateChanged(endpointClass, state);
+            }
+        };
+
+        for (EndpointClass endpointClass : EndpointClass.values()) {
+            budgets.put(endpointClass, new RetryBudget(RETRY_BUDGET_RATIO, RETRY_BUDGET_MAX_TOKENS));
+            backpressure.put(endpointClass, new Backpressure(endpointClass));
+            if (endpointClass != EndpointClass.HEALTH) {
+                breakers.put(endpointClass, new CircuitBreaker(endpointClass, FAILURE_THRESHOLD, OPEN_MILLIS, dispatch));
+            }
+        }
+    }
+
+    public static Resilience getInstance() {
+        if (instance == null) {
+            synchronized (Resilience.class) {
+                if (instance == null) {
+                    instance = new Resilience();
+                }
+            }
+        }
+        return instance;
+    }
+
+    public synchronized void setRetryPolicy(EndpointClass endpointClass, RetryPolicy policy) {
+        policies.put(endpointClass, policy != null ? policy : RetryPolicy.NONE);
+    }
+
+    public synchronized RetryPolicy getRetryPolicy(EndpointClass endpointClass) {
+        return policies.get(endpointClass);
+    }
+
+    public RetryBudget getRetryBudget(EndpointClass endpointClass) {
+        return budgets.get(endpointClass);
+    }
+
+    // Replaces the bucket, starting full; counters restart
+    public synchronized void setRateLimit(EndpointClass endpointClass, double ratePerMinute, int burst) {
+        rateLimits.put(endpointClass, new TokenBucket(ratePerMinute, burst));
+    }
+
+    public synchronized TokenBucket getRateLimit(EndpointClass endpointClass) {
+        return rateLimits.get(endpointClass);
+    }
+
+    public synchronized long getShedCount() {
+        long total = 0;
+        for (TokenBucket bucket : rateLimits.values()) {
+            total += bucket.getShedCount();
+        }
+        return total;
+    }
+
+    public Backpressure getBackpressure(EndpointClass endpointClass) {
+        return backpressure.get(endpointClass);
+    }
+
+    // null for classes that are never short-circuited
+    public CircuitBreaker getCircuitBreaker(EndpointClass endpointClass) {
+        return breakers.get(endpointClass);
+    }
+
+    public CircuitBreaker.State getState(EndpointClass endpointClass) {
+        CircuitBreaker breaker = breakers.get(endpointClass);
+        return breaker != null ? breaker.getState() : CircuitBreaker.State.CLOSED;
+    }
+
+    // True while any circuit is open or probing
+    public boolean isRecovering() {
+        for (CircuitBreaker breaker : breakers.values()) {
+            if (breaker.getState() != CircuitBreaker.State.CLOSED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized long nextDelayMillis(RetryPolicy policy, long previousDelayMillis) {
+        return policy.nextDelayMillis(previousDelayMillis, random);
+    }
+
+    // Called by BackendSelector on a switch: open circuits and Retry-After holds
+    // were earned by the previous backend. Budgets and rate limits stay per device.
+    public void reset() {
+        for (CircuitBreaker breaker : breakers.values()) {
+            breaker.reset();
+        }
+        for (Backpressure hold : backpressure.values()) {
+            hold.reset();
+        }
+    }
+
+    public void addStateListener(CircuitBreaker.StateListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeStateListener(CircuitBreaker.StateListener listener) {
+        listeners.remove(listener);
+    }
+
+    public String getStats() {
+        StringBuilder sb = new StringBuilder();
+        for (EndpointClass endpointClass : EndpointClass.values()) {
+            sb.append(endpointClass).append(": ");
+            CircuitBreaker breaker = breakers.get(endpointClass);
+            if (breaker != null) {
+                sb.append(breaker.getStats()).append(", ");
+            }
+            sb.append("retries ").append(budgets.get(endpointClass).getStats()).append(", ");
+            sb.append("requests ").append(getRateLimit(endpointClass).getStats()).append(", ");
+            sb.append("backpressure ").append(backpressure.get(endpointClass).getStats()).append("\n");
+        }
+        return sb.toString();
+    }
+}
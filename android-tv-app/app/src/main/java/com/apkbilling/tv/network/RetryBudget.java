@@ -0,0 +1,42 @@
+package com.apkbilling.tv.network;
+
+import java.util.Locale;
+
+// Caps retries to a fraction of normal traffic.
+// Every first attempt deposits `ratio` tokens and every retry withdraws one,
+// so during an outage retries add at most ~ratio extra load instead of
+// multiplying it by the number of attempts.
+public class RetryBudget {
+    private final double ratio;
+    private final double maxTokens;
+    private double tokens;
+
+    // Statistics
+    private long granted = 0;
+    private long denied = 0;
+
+    public RetryBudget(double ratio, double maxTokens) {
+        this.ratio = Math.max(0, ratio);
+        this.maxTokens = Math.max(1, maxTokens);
+        // Start full so the first blip after boot can still be retried
+        this.tokens = this.maxTokens;
+    }
+
+    public synchronized void onRequest() {
+        tokens = Math.min(maxTokens, tokens + ratio);
+    }
+
+    public synchronized boolean tryAcquireRetry() {
+        if (tokens >= 1) {
+            tokens -= 1;
+            granted++;
+            return true;
+        }
+        denied++;
+        return false;
+    }
+
+    public synchronized String getStats() {
+        return String.format(Locale.US, "tokens=%.1f granted=%d denied=%d", tokens, granted, denied);
+    }
+}
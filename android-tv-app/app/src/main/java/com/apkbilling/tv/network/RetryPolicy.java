@@ -0,0 +1,41 @@
+package com.apkbilling.tv.network;
+
+import java.util.Random;
+
+// Retry settings for one endpoint class.
+// Delays use "decorrelated jitter": each delay is random between the base delay
+// and three times the previous one, capped at maxDelayMillis. Devices that failed
+// at the same moment therefore spread out instead of retrying in lockstep.
+public class RetryPolicy {
+    public static final RetryPolicy NONE = new RetryPolicy(0, 0, 0);
+
+    private final int maxRetries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    public RetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis) {
+        this.maxRetries = Math.max(0, maxRetries);
+        this.baseDelayMillis = Math.max(0, baseDelayMillis);
+        this.maxDelayMillis = Math.max(this.baseDelayMillis, maxDelayMillis);
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public long getBaseDelayMillis() {
+        return baseDelayMillis;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    // previousDelayMillis is 0 before the first retry
+    public long nextDelayMillis(long previousDelayMillis, Random random) {
+        long lower = baseDelayMillis;
+        long upper = Math.max(lower, Math.max(previousDelayMillis, baseDelayMillis) * 3);
+        long delay = lower + (long) (random.nextDouble() * (upper - lower));
+        return Math.min(maxDelayMillis, delay);
+    }
+}
@@ -0,0 +1,133 @@
+package com.apkbilling.tv.network;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Coalesces concurrent identical lookups into one in-flight request.
+// The first caller for a key starts the load, later callers for the same key
+// just wait for that result. A successful result can optionally be reused for
+// a short freshness window so back-to-back lookups don't reach the server.
+public class SingleFlight<T> {
+
+    public interface Loader<T> {
+        void load(ApiClient.ApiCallback<T> done);
+    }
+
+    private static class Flight<T> {
+        final List<ApiClient.ApiCallback<T>> waiters = new ArrayList<>();
+    }
+
+    private static class Cached<T> {
+        final T value;
+        final long storedAt;
+
+        Cached(T value, long storedAt) {
+            this.value = value;
+            this.storedAt = storedAt;
+        }
+    }
+
+    private final Map<String, Flight<T>> inFlight = new HashMap<>();
+    private final Map<String, Cached<T>> recent = new HashMap<>();
+    private volatile long freshnessMillis;
+
+    // Statistics
+    private long executions = 0;
+    private long coalesced = 0;
+    private long freshHits = 0;
+
+    public SingleFlight(long freshnessMillis) {
+        this.freshnessMillis = freshnessMillis;
+    }
+
+    public void setFreshnessMillis(long freshnessMillis) {
+        this.freshnessMillis = Math.max(0, freshnessMillis);
+        if (this.freshnessMillis == 0) {
+            synchronized (this) {
+                recent.clear();
+            }
+        }
+    }
+
+    public void execute(String key, ApiClient.ApiCallback<T> callback, Loader<T> loader) {
+        T freshValue = null;
+        boolean startLoad = false;
+
+        synchronized (this) {
+            Cached<T> cached = recent.get(key);
+            if (cached != null && SystemClock.elapsedRealtime() - cached.storedAt <= freshnessMillis) {
+                freshHits++;
+                freshValue = cached.value;
+            } else {
+                Flight<T> flight = inFlight.get(key);
+                if (flight == null) {
+                    flight = new Flight<>();
+                    inFlight.put(key, flight);
+                    executions++;
+                    startLoad = true;
+                } else {
+                    coalesced++;
+                }
+                flight.waiters.add(callback);
+            }
+        }
+
+        if (freshValue != null) {
+            callback.onSuccess(freshValue);
+            return;
+        }
+
+        if (startLoad) {
+            loader.load(new ApiClient.ApiCallback<T>() {
+                @Override
+                public void onSuccess(T data) {
+                    for (ApiClient.ApiCallback<T> waiter : complete(key, data)) {
+                        waiter.onSuccess(data);
+                    }
+                }
+
+                @Override
+                public void onNotModified(T data) {
+                    for (ApiClient.ApiCallback<T> waiter : complete(key, data)) {
+                        waiter.onNotModified(data);
+                    }
+                }
+
+                @Override
+                public void onError(String error) {
+                    for (ApiClient.ApiCallback<T> waiter : complete(key, null)) {
+                        waiter.onError(error);
+                    }
+                }
+            });
+        }
+    }
+
+    // Removes the flight and remembers a successful value for the freshness window
+    private synchronized List<ApiClient.ApiCallback<T>> complete(String key, T value) {
+        Flight<T> flight = inFlight.remove(key);
+        if (value != null && freshnessMillis > 0) {
+            recent.put(key, new Cached<>(value, SystemClock.elapsedRealtime()));
+        } else {
+            recent.remove(key);
+        }
+        return flight != null ? flight.waiters : new ArrayList<>();
+    }
+
+    // Forget everything remembered for a key, e.g. after the session was changed locally
+    public synchronized void invalidate(String key) {
+        recent.remove(key);
+    }
+
+    public synchronized void invalidateAll() {
+        recent.clear();
+    }
+
+    public synchronized String getStats() {
+        return "executions=" + executions + " coalesced=" + coalesced + " freshHits=" + freshHits;
+    }
+}
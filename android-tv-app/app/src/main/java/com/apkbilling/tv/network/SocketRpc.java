@@ -0,0 +1,354 @@
+package com.apkbilling.tv.network;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.socket.client.Ack;
+import io.socket.client.Socket;
+import okhttp3.Headers;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+
+// Runs ApiClient calls as acknowledged socket.io emits over the connection
+// WebSocketService already holds, instead of separate HTTP exchanges.
+//
+// Protocol (server side must opt in):
+//   "api_hello"   {version}                            -> ack {rpc: true, version}
+//   "api_request" {id, method, path, headers, body}    -> ack {id, status, headers, body}
+// body is sent as binary (it may be gzipped or CBOR); the server may answer with
+// a string, binary or a JSON object. The id correlates the ack with the request.
+//
+// Calls only go over the socket after the server answered the hello on the
+// current connection and only for hosts the socket is connected to. A disconnect,
+// timeout or malformed ack switches back to HTTP until the next successful hello,
+// and ApiClient resends that call over HTTP. Because an emit may have reached the
+// server before its ack was lost, session mutations only use the socket when the
+// server is known to deduplicate them (see ApiClient.isDeduplicating).
+public final class SocketRpc {
+    private static final String TAG = "SocketRpc";
+
+    private static final int PROTOCOL_VERSION = 1;
+    private static final long HELLO_TIMEOUT_MILLIS = 3000;
+    // Leaves the rest of the endpoint deadline for the HTTP fallback
+    private static final long MAX_WAIT_MILLIS = 5000;
+    private static final MediaType DEFAULT_CONTENT_TYPE = MediaType.get("application/json; charset=utf-8");
+
+    private static volatile SocketRpc instance;
+
+    private volatile Socket socket;
+    private volatile String hostKey;
+    private volatile boolean available = false;
+    private final Map<String, RpcExchange> pending = new ConcurrentHashMap<>();
+
+    // Statistics
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+
+    private SocketRpc() {
+    }
+
+    public static SocketRpc getInstance() {
+        if (instance == null) {
+            synchronized (SocketRpc.class) {
+                if (instance == null) {
+                    instance = new SocketRpc();
+                }
+            }
+        }
+        return instance;
+    }
+
+    // Called by WebSocketService once the socket is connected to serverUrl
+    public void attach(Socket socket, String serverUrl) {
+        HttpUrl url = HttpUrl.parse(serverUrl);
+        if (url == null) {
+            return;
+        }
+        this.socket = socket;
+        this.hostKey = hostKey(url);
+        this.available = false;
+
+        AtomicBoolean answered = new AtomicBoolean(false);
+        ScheduledFuture<?> helloTimeout = HttpEngine.getInstance().getScheduler().schedule(() -> {
+            if (answered.compareAndSet(false, true)) {
+                Log.d(TAG, "Server did not answer api_hello, staying on HTTP");
+            }
+        }, HELLO_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+        try {
+            JSONObject hello = new JSONObject();
+            hello.put("version", PROTOCOL_VERSION);
+            socket.emit("api_hello", new Object[]{hello}, args -> {
+                if (!answered.compareAndSet(false, true)) {
+                    return;
+                }
+                helloTimeout.cancel(false);
+                JSONObject reply = args.length > 0 && args[0] instanceof JSONObject ? (JSONObject) args[0] : null;
+                if (socket == this.socket && reply != null && reply.optBoolean("rpc", false)) {
+                    available = true;
+                    Log.i(TAG, "API calls to " + hostKey + " now run over the WebSocket");
+                }
+            });
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to build api_hello", e);
+        }
+    }
+
+    // Called by WebSocketService on disconnect; waiting calls fall back to HTTP
+    public void detach() {
+        available = false;
+        socket = null;
+        failAll(new IOException("WebSocket disconnected"));
+    }
+
+    public boolean isAvailable() {
+        Socket current = socket;
+        return available && current != null && current.connected();
+    }
+
+    // Request/response calls that are worth keeping off a fresh HTTP exchange
+    // and are safe to resend over HTTP if the ack never comes
+    public boolean canCarry(Endpoint endpoint, Request request) {
+        if (!isAvailable() || !hostKey(request.url()).equals(hostKey)) {
+            return false;
+        }
+        switch (endpoint) {
+            case HEARTBEAT:
+            case ACTIVE_SESSION:
+                return true;
+            case SESSION_START:
+            case SESSION_STOP:
+                return ApiClient.isDeduplicating(request.url());
+            default:
+                return false;
+        }
+    }
+
+    Exchange newExchange(Request request, long timeoutMillis) {
+        return new RpcExchange(request, timeoutMillis);
+    }
+
+    // A failed exchange that wasn't cancelled; the caller resends it over HTTP
+    void onExchangeFailed(IOException e) {
+        if (available) {
+            Log.w(TAG, "RPC failed (" + e.getMessage() + "), switching to HTTP until the next reconnect");
+            available = false;
+        }
+        fallbacks.incrementAndGet();
+    }
+
+    public String getStats() {
+        return String.format(Locale.US, "socket=%s completed=%d fallbacks=%d pending=%d",
+                isAvailable() ? "active" : "off", completed.get(), fallbacks.get(), pending.size());
+    }
+
+    private void failAll(IOException e) {
+        Iterator<RpcExchange> iterator = pending.values().iterator();
+        while (iterator.hasNext()) {
+            RpcExchange call = iterator.next();
+            iterator.remove();
+            call.fail(e);
+        }
+    }
+
+    private static Executor dispatcher() {
+        return HttpEngine.getInstance().getDispatcher().executorService();
+    }
+
+    private static String hostKey(HttpUrl url) {
+        return url.host() + ":" + url.port();
+    }
+
+    // An exchange that is one acknowledged emit
+    private final class RpcExchange implements Exchange {
+        private final Request request;
+        private final long timeoutMillis;
+        private final String id = UUID.randomUUID().toString();
+        private final AtomicBoolean executed = new AtomicBoolean(false);
+        private final AtomicBoolean finished = new AtomicBoolean(false);
+        private volatile boolean canceled = false;
+        private volatile Callback callback;
+        private volatile ScheduledFuture<?> timer;
+
+        RpcExchange(Request request, long timeoutMillis) {
+            this.request = request;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        @Override
+        public void enqueue(Callback responseCallback) {
+            if (!executed.compareAndSet(false, true)) {
+                throw new IllegalStateException("Already Executed");
+            }
+            callback = responseCallback;
+            Socket current = socket;
+            if (canceled) {
+                fail(new IOException("Canceled"));
+                return;
+            }
+            if (current == null || !current.connected()) {
+                fail(new IOException("WebSocket not connected"));
+                return;
+            }
+
+            JSONObject envelope;
+            try {
+                envelope = toEnvelope();
+            } catch (IOException | JSONException e) {
+                fail(e instanceof IOException ? (IOException) e : new IOException(e));
+                return;
+            }
+
+            long waitMillis = timeoutMillis > 0 ? Math.min(MAX_WAIT_MILLIS, timeoutMillis) : MAX_WAIT_MILLIS;
+            pending.put(id, this);
+            timer = HttpEngine.getInstance().getScheduler().schedule(
+                    () -> fail(new InterruptedIOException("RPC timeout")), waitMillis, TimeUnit.MILLISECONDS);
+
+            current.emit("api_request", new Object[]{envelope}, (Ack) this::onAck);
+        }
+
+        private JSONObject toEnvelope() throws IOException, JSONException {
+            JSONObject headers = new JSONObject();
+            Headers requestHeaders = request.headers();
+            for (int i = 0; i < requestHeaders.size(); i++) {
+                headers.put(requestHeaders.name(i).toLowerCase(Locale.US), requestHeaders.value(i));
+            }
+
+            JSONObject envelope = new JSONObject();
+            envelope.put("id", id);
+            envelope.put("method", request.method());
+            String query = request.url().encodedQuery();
+            envelope.put("path", request.url().encodedPath() + (query != null ? "?" + query : ""));
+            if (request.body() != null) {
+                if (request.body().contentType() != null) {
+                    headers.put("content-type", request.body().contentType().toString());
+                }
+                Buffer buffer = new Buffer();
+                request.body().writeTo(buffer);
+                envelope.put("body", buffer.readByteArray());
+            }
+            envelope.put("headers", headers);
+            return envelope;
+        }
+
+        // Runs on the socket.io event thread: claim the exchange, then leave decoding
+        // and the callback to the OkHttp dispatcher threads like any HTTP response
+        private void onAck(Object... args) {
+            JSONObject reply = args.length > 0 && args[0] instanceof JSONObject ? (JSONObject) args[0] : null;
+            if (reply == null || !id.equals(reply.optString("id"))) {
+                fail(new IOException("Malformed RPC reply"));
+                return;
+            }
+            if (!finish()) {
+                return;
+            }
+            dispatcher().execute(() -> deliver(reply));
+        }
+
+        private void deliver(JSONObject reply) {
+            Response response;
+            try {
+                response = toResponse(reply);
+            } catch (RuntimeException e) {
+                // e.g. an invalid header name or status; the exchange is already claimed,
+                // so report it here and let ApiClient resend over HTTP
+                callback.onFailure(new IOException("Malformed RPC reply", e));
+                return;
+            }
+            completed.incrementAndGet();
+            try {
+                callback.onResponse(response);
+            } catch (IOException e) {
+                Log.e(TAG, "RPC response handler failed", e);
+            }
+        }
+
+        private Response toResponse(JSONObject reply) {
+            Headers.Builder headers = new Headers.Builder();
+            JSONObject replyHeaders = reply.optJSONObject("headers");
+            if (replyHeaders != null) {
+                Iterator<String> names = replyHeaders.keys();
+                while (names.hasNext()) {
+                    String name = names.next();
+                    headers.add(name, replyHeaders.optString(name));
+                }
+            }
+            String contentType = headers.get("Content-Type");
+            MediaType mediaType = contentType != null ? MediaType.parse(contentType) : null;
+
+            Object body = reply.opt("body");
+            byte[] bytes;
+            if (body instanceof byte[]) {
+                bytes = (byte[]) body;
+            } else if (body == null || body == JSONObject.NULL) {
+                bytes = new byte[0];
+            } else {
+                bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+            }
+
+            return new Response.Builder()
+                    .request(request)
+                    .protocol(Protocol.HTTP_1_1)
+                    .code(reply.optInt("status", 200))
+                    .message("")
+                    .headers(headers.build())
+                    .body(ResponseBody.create(bytes, mediaType != null ? mediaType : DEFAULT_CONTENT_TYPE))
+                    .build();
+        }
+
+        // Also reached from enqueue() and cancel(); the callback is always posted so it
+        // never runs on the caller's thread (e.g. inside RequestScheduler.drain)
+        void fail(IOException e) {
+            if (finish()) {
+                dispatcher().execute(() -> callback.onFailure(e));
+            }
+        }
+
+        // First completion wins: ack, timeout, cancel and disconnect race
+        private boolean finish() {
+            if (!finished.compareAndSet(false, true)) {
+                return false;
+            }
+            pending.remove(id);
+            ScheduledFuture<?> current = timer;
+            if (current != null) {
+                current.cancel(false);
+            }
+            return true;
+        }
+
+        @Override
+        public void cancel() {
+            canceled = true;
+            if (callback != null) {
+                fail(new IOException("Canceled"));
+            }
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return canceled;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.apkbilling.tv.network;
+
+import android.os.SystemClock;
+
+import java.util.Locale;
+
+// Outbound request budget for one endpoint class.
+// Tokens refill continuously at `ratePerMinute` up to `burst`; every request that
+// would hit the wire takes one, and a request that finds the bucket empty is shed
+// instead of sent. Essential calls (session start/stop) may additionally borrow a
+// reserve of `burst` tokens, so lookups can't starve billing, while a loop of
+// mutations is still capped once the reserve is spent.
+public class TokenBucket {
+    private final double ratePerMinute;
+    private final double burst;
+    private double tokens;
+    private long refilledAt;
+
+    // Statistics
+    private long admitted = 0;
+    private long shed = 0;
+
+    public TokenBucket(double ratePerMinute, int burst) {
+        this.ratePerMinute = Math.max(0, ratePerMinute);
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+        this.refilledAt = SystemClock.elapsedRealtime();
+    }
+
+    public synchronized boolean tryAcquire(boolean essential) {
+        refill();
+        double floor = essential ? 1 - burst : 1;
+        if (tokens >= floor) {
+            tokens -= 1;
+            admitted++;
+            return true;
+        }
+        shed++;
+        return false;
+    }
+
+    private void refill() {
+        long now = SystemClock.elapsedRealtime();
+        tokens = Math.min(burst, tokens + (now - refilledAt) * ratePerMinute / 60000.0);
+        refilledAt = now;
+    }
+
+    public synchronized long getShedCount() {
+        return shed;
+    }
+
+    public synchronized String getStats() {
+        refill();
+        return String.format(Locale.US, "rate=%.0f/min burst=%.0f tokens=%.1f admitted=%d shed=%d",
+                ratePerMinute, burst, tokens, admitted, shed);
+    }
+}
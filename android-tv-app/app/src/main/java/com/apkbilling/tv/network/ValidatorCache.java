@@ -0,0 +1,68 @@
+package com.apkbilling.tv.network;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Remembers the last ETag and decoded response per resource URL so polling
+// requests can be sent as conditional GETs. A 304 reply is answered from here
+// instead of re-downloading and re-parsing the body.
+public class ValidatorCache<T> {
+
+    private static class Entry<T> {
+        final String etag;
+        final ApiClient.ApiResponse<T> response;
+
+        Entry(String etag, ApiClient.ApiResponse<T> response) {
+            this.etag = etag;
+            this.response = response;
+        }
+    }
+
+    // Only a handful of resources are polled per TV
+    private static final int MAX_ENTRIES = 16;
+
+    private final Map<String, Entry<T>> entries = new HashMap<>();
+
+    // Statistics
+    private long notModified = 0;
+    private long modified = 0;
+
+    public synchronized String getETag(String url) {
+        Entry<T> entry = entries.get(url);
+        return entry != null ? entry.etag : null;
+    }
+
+    public synchronized void store(String url, String etag, ApiClient.ApiResponse<T> response) {
+        modified++;
+        if (etag == null || etag.isEmpty()) {
+            entries.remove(url);
+            return;
+        }
+        if (entries.size() >= MAX_ENTRIES && !entries.containsKey(url)) {
+            entries.clear();
+        }
+        entries.put(url, new Entry<>(etag, response));
+    }
+
+    // Returns the response remembered for a 304, or null if we have nothing to revalidate
+    public synchronized ApiClient.ApiResponse<T> notModified(String url) {
+        Entry<T> entry = entries.get(url);
+        if (entry == null) {
+            return null;
+        }
+        notModified++;
+        return entry.response;
+    }
+
+    public synchronized void invalidate(String url) {
+        entries.remove(url);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized String getStats() {
+        return "notModified=" + notModified + " modified=" + modified;
+    }
+}
@@ -13,12 +13,14 @@ import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import androidx.core.app.NotificationCompat;
 
 import com.apkbilling.tv.MainActivity;
 import com.apkbilling.tv.R;
 import com.apkbilling.tv.network.ApiClient;
+import com.apkbilling.tv.network.EndpointClass;
 import com.apkbilling.tv.utils.SettingsManager;
 
 public class BillingBackgroundService extends Service {
@@ -38,13 +40,26 @@ public class BillingBackgroundService extends Service {
     private boolean isSessionActive = false;
     
     private static final int HEARTBEAT_INTERVAL = 15000; // 15 seconds for faster detection
+    private static final int SESSION_CHECK_INTERVAL = 10000;
+    // elapsedRealtime() of the next server validation while a session is running
+    private long nextSessionCheckAt = 0;
+    // Last session digest from a heartbeat response and when it arrived (elapsedRealtime)
+    private ApiClient.SessionDigest lastSessionDigest;
+    private long lastSessionDigestAt = 0;
+    // Local countdown may drift this far from the digest before we refetch the session
+    private static final int DIGEST_DRIFT_SECONDS = 30;
     private long lastToastTime = 0; // Prevent toast spam from service
+    // ANDROID_ID never changes while the app runs; looked up once for heartbeats
+    private String heartbeatDeviceId;
     
     private BroadcastReceiver webSocketReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
             String action = intent.getAction();
             
+            // Any session event makes a remembered session lookup stale
+            ApiClient.invalidateSessionLookups();
+            
             if ("com.apkbilling.tv.TIME_ADDED".equals(action)) {
                 int addedMinutes = intent.getIntExtra("additional_minutes", 0);
                 Log.i(TAG, "🔔 WebSocket: Time added +" + addedMinutes + " minutes (background service)");
@@ -54,6 +69,8 @@ public class BillingBackgroundService extends Service {
                 
             } else if ("com.apkbilling.tv.SESSION_STARTED".equals(action)) {
                 Log.i(TAG, "🔔 WebSocket: Session started (background service)");
+                // Polling may be paused by heartbeat digests; fetch the new session right away
+                checkForActiveSession();
                 
             } else if ("com.apkbilling.tv.SESSION_ENDED".equals(action)) {
                 Log.i(TAG, "🔔 WebSocket: Session ended (background service)");
@@ -186,25 +203,68 @@ public class BillingBackgroundService extends Service {
                         return;
                     }
                     
-                    // Real-time sync: Check with server every 10 seconds to detect manual session stops
-                    if (remainingSeconds % 10 == 0) {
+                    // Real-time sync: Check with server every 10 seconds (or as the server asks) to detect manual session stops,
+                    // unless heartbeat digests are already reporting session changes
+                    if (SystemClock.elapsedRealtime() >= nextSessionCheckAt && !hasFreshSessionDigest()) {
                         Log.d(TAG, "Real-time session validation check");
                         checkForActiveSession();
                     }
-                } else if (!isSessionActive) {
+                } else if (!isSessionActive && !hasFreshSessionDigest()) {
                     // Real-time detection: Check for new sessions every 10 seconds when not active
                     checkForActiveSession();
                 }
                 
                 // Real-time responsiveness: check every second when active, every 10 seconds when inactive
-                handler.postDelayed(this, isSessionActive ? 1000 : 10000);
+                handler.postDelayed(this, isSessionActive ? 1000 : sessionCheckInterval());
             }
         };
         
         handler.post(sessionCheckRunnable);
     }
     
+    // Stretched by the server's poll interval hint or Retry-After when it is overloaded
+    private long sessionCheckInterval() {
+        return ApiClient.getPollInterval(EndpointClass.SESSION, SESSION_CHECK_INTERVAL);
+    }
+    
+    // True while heartbeats keep delivering digests; missing two in a row resumes polling
+    private boolean hasFreshSessionDigest() {
+        if (lastSessionDigest == null) {
+            return false;
+        }
+        long maxAge = 2 * ApiClient.getPollInterval(EndpointClass.HEARTBEAT, HEARTBEAT_INTERVAL);
+        return SystemClock.elapsedRealtime() - lastSessionDigestAt <= maxAge;
+    }
+    
+    // Called with each heartbeat response; fetches the full session only when the digest moved
+    private void onSessionDigest(ApiClient.SessionDigest digest) {
+        if (digest == null) {
+            // Server does not send digests (or stopped); the poll loop takes over once the last one is stale
+            return;
+        }
+        
+        boolean changed = lastSessionDigest == null
+                || digest.session_id != lastSessionDigest.session_id
+                || digest.version != lastSessionDigest.version;
+        boolean serverActive = digest.session_id != 0;
+        if (serverActive != isSessionActive) {
+            changed = true;
+        } else if (serverActive && currentSession != null) {
+            changed |= currentSession.session_id != digest.session_id
+                    || Math.abs(remainingSeconds - digest.remaining_seconds) > DIGEST_DRIFT_SECONDS;
+        }
+        
+        lastSessionDigest = digest;
+        lastSessionDigestAt = SystemClock.elapsedRealtime();
+        
+        if (changed) {
+            Log.d(TAG, "Session digest changed (session " + digest.session_id + " v" + digest.version + "), fetching session");
+            checkForActiveSession();
+        }
+    }
+    
     private void checkForActiveSession() {
+        nextSessionCheckAt = SystemClock.elapsedRealtime() + sessionCheckInterval();
         String deviceId = settingsManager.getDeviceId();
         if (deviceId == null || deviceId.isEmpty()) {
             Log.d(TAG, "No device ID for session check");
@@ -264,6 +324,16 @@ public class BillingBackgroundService extends Service {
                 }
             }
             
+            @Override
+            public void onUnchanged(ApiClient.SessionResponse session) {
+                if (isSessionActive && currentSession != null && session.session_id == currentSession.session_id) {
+                    // Server returned 304 - nothing to re-parse or re-apply
+                    Log.d(TAG, "Session unchanged on server");
+                } else {
+                    onSuccess(session);
+                }
+            }
+            
             @Override
             public void onError(String error) {
                 Log.d(TAG, "No active session found: " + error);
@@ -429,7 +499,8 @@ public class BillingBackgroundService extends Service {
             @Override
             public void run() {
                 sendHeartbeat();
-                handler.postDelayed(this, HEARTBEAT_INTERVAL);
+                // The server can slow the fleet down through the heartbeat response or Retry-After
+                handler.postDelayed(this, ApiClient.getPollInterval(EndpointClass.HEARTBEAT, HEARTBEAT_INTERVAL));
             }
         };
         
@@ -439,8 +510,11 @@ public class BillingBackgroundService extends Service {
     }
     
     private void sendHeartbeat() {
-        String deviceId = android.provider.Settings.Secure.getString(
-            getContentResolver(), android.provider.Settings.Secure.ANDROID_ID);
+        if (heartbeatDeviceId == null) {
+            heartbeatDeviceId = android.provider.Settings.Secure.getString(
+                getContentResolver(), android.provider.Settings.Secure.ANDROID_ID);
+        }
+        String deviceId = heartbeatDeviceId;
         
         if (deviceId == null || deviceId.isEmpty()) {
             Log.w(TAG, "Cannot send heartbeat: Device ID is null");
@@ -454,7 +528,8 @@ public class BillingBackgroundService extends Service {
             return;
         }
         
-        // Get current device name and location from settings
+        // Get current device name and location from settings (in-memory prefs);
+        // ApiClient only sends them when they differ from what the server acknowledged
         String deviceName = settingsManager.getDeviceName();
         if (deviceName == null || deviceName.isEmpty()) {
             deviceName = "AndroidTV-" + android.os.Build.MODEL;
@@ -471,6 +546,9 @@ public class BillingBackgroundService extends Service {
             @Override
             public void onSuccess(ApiClient.HeartbeatResponse data) {
                 Log.d(TAG, "Heartbeat sent successfully");
+                ApiClient.SessionDigest digest = data != null ? data.session : null;
+                // Session state is owned by the main-thread poll loop
+                handler.post(() -> onSessionDigest(digest));
             }
             
             @Override
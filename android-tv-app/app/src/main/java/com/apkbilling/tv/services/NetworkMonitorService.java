@@ -10,7 +10,9 @@ import android.net.NetworkRequest;
 import android.os.IBinder;
 import android.util.Log;
 
+import com.apkbilling.tv.network.ApiClient;
 import com.apkbilling.tv.utils.NetworkUtils;
+import com.apkbilling.tv.utils.SettingsManager;
 
 public class NetworkMonitorService extends Service {
     private static final String TAG = "NetworkMonitorService";
@@ -135,6 +137,9 @@ public class NetworkMonitorService extends Service {
     private void onInternetAvailable() {
         Log.d(TAG, "Internet connection available");
         
+        // Old sockets died with the previous network, open fresh ones before anyone needs them
+        ApiClient.prewarm(this, new SettingsManager(this).getApiUrl(), true);
+        
         // Notify that internet is available - can start API communications
         Intent broadcastIntent = new Intent("com.apkbilling.tv.INTERNET_AVAILABLE");
         broadcastIntent.putExtra("device_ip", NetworkUtils.getDeviceIPAddress());
@@ -1,11 +1,18 @@
 package com.apkbilling.tv.services;
 
 import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
 import android.os.IBinder;
 import android.util.Log;
 import androidx.annotation.Nullable;
 
+import com.apkbilling.tv.network.ApiClient;
+import com.apkbilling.tv.network.BackendSelector;
+import com.apkbilling.tv.network.SocketRpc;
 import com.apkbilling.tv.utils.SettingsManager;
 
 import io.socket.client.IO;
@@ -22,6 +29,21 @@ public class WebSocketService extends Service {
     private Socket socket;
     private SettingsManager settingsManager;
     private String deviceId;
+    private String serverUrl;
+
+    // ApiClient failed over (or back) to another backend: follow it
+    private BroadcastReceiver backendReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            String newUrl = intent.getStringExtra(BackendSelector.EXTRA_SERVER_URL);
+            if (newUrl == null || newUrl.equals(serverUrl)) {
+                return;
+            }
+            Log.i(TAG, "🔀 Backend changed (" + intent.getStringExtra(BackendSelector.EXTRA_REASON) + "), reconnecting to " + newUrl);
+            closeSocket();
+            initializeSocket(newUrl);
+        }
+    };
 
     @Override
     public void onCreate() {
@@ -31,12 +53,20 @@ public class WebSocketService extends Service {
         settingsManager = new SettingsManager(this);
         deviceId = settingsManager.getDeviceId();
         
-        initializeSocket();
+        IntentFilter backendFilter = new IntentFilter(BackendSelector.ACTION_BACKEND_CHANGED);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            registerReceiver(backendReceiver, backendFilter, Context.RECEIVER_NOT_EXPORTED);
+        } else {
+            registerReceiver(backendReceiver, backendFilter);
+        }
+        
+        // The backend ApiClient is currently using, the configured server if it never switched
+        initializeSocket(ApiClient.getActiveServerUrl(this));
     }
 
-    private void initializeSocket() {
+    private void initializeSocket(String url) {
         try {
-            String serverUrl = settingsManager.getServerUrl();
+            serverUrl = url;
             if (serverUrl == null || serverUrl.isEmpty()) {
                 Log.w(TAG, "Server URL not set, using default");
                 serverUrl = "http://192.168.1.2:3000";
@@ -60,6 +90,8 @@ public class WebSocketService extends Service {
             public void call(Object... args) {
                 Log.d(TAG, "✅ Connected to WebSocket server");
                 authenticateDevice();
+                // Offer the connection to ApiClient for request/response calls
+                SocketRpc.getInstance().attach(socket, serverUrl);
             }
         });
 
@@ -67,6 +99,7 @@ public class WebSocketService extends Service {
             @Override
             public void call(Object... args) {
                 Log.d(TAG, "❌ Disconnected from WebSocket server");
+                SocketRpc.getInstance().detach();
             }
         });
 
@@ -304,6 +337,16 @@ public class WebSocketService extends Service {
         }
     }
 
+    // Drops the current socket and its listeners, e.g. before switching backends
+    private void closeSocket() {
+        SocketRpc.getInstance().detach();
+        if (socket != null) {
+            socket.off();
+            socket.disconnect();
+            socket = null;
+        }
+    }
+
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         Log.d(TAG, "WebSocket service started");
@@ -318,6 +361,12 @@ public class WebSocketService extends Service {
     @Override
     public void onDestroy() {
         Log.d(TAG, "WebSocket service destroyed");
+        try {
+            unregisterReceiver(backendReceiver);
+        } catch (Exception e) {
+            Log.w(TAG, "Backend receiver not registered or already unregistered");
+        }
+        SocketRpc.getInstance().detach();
         disconnect();
         super.onDestroy();
     }
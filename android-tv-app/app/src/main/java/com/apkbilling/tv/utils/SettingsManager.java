@@ -4,11 +4,16 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.Build;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class SettingsManager {
     private static final String PREFS_NAME = "APKBillingSettings";
     
     // Keys
     private static final String KEY_SERVER_URL = "server_url";
+    private static final String KEY_BACKUP_SERVER_URLS = "backup_server_urls";
+    private static final String KEY_SERVER_SELECTION = "server_selection";
     private static final String KEY_DEVICE_NAME = "device_name";
     private static final String KEY_DEVICE_LOCATION = "device_location";  
     private static final String KEY_WARNING_TIME = "warning_time_minutes";
@@ -16,6 +21,7 @@ public class SettingsManager {
     private static final String KEY_OVERLAY_POSITION = "overlay_position";
     private static final String KEY_FIRST_RUN = "first_run";
     private static final String KEY_KIOSK_MODE = "kiosk_mode_enabled";
+    private static final String KEY_HTTP2_PRIOR_KNOWLEDGE = "http2_prior_knowledge";
     
     // Default values
     public static final String DEFAULT_SERVER_URL = "http://192.168.1.2:3000";
@@ -23,6 +29,12 @@ public class SettingsManager {
     public static final boolean DEFAULT_AUTO_START = false;
     public static final String DEFAULT_OVERLAY_POSITION = "top_right";
     public static final boolean DEFAULT_KIOSK_MODE = true; // Enable by default for security
+    public static final boolean DEFAULT_HTTP2_PRIOR_KNOWLEDGE = false; // Stock backend is HTTP/1.1 only
+    
+    // How the TV picks among the configured servers
+    public static final String SERVER_SELECTION_FAILOVER = "failover"; // primary first, backups in order
+    public static final String SERVER_SELECTION_HASHED = "hashed";     // home node by device id on a hash ring
+    public static final String DEFAULT_SERVER_SELECTION = SERVER_SELECTION_FAILOVER;
     
     private SharedPreferences prefs;
     private Context context;
@@ -62,6 +74,39 @@ public class SettingsManager {
         return getServerUrl() + "/api";
     }
     
+    // Backup servers, comma separated, tried in this order when the primary fails
+    public String getBackupServerUrls() {
+        return prefs.getString(KEY_BACKUP_SERVER_URLS, "");
+    }
+    
+    public void setBackupServerUrls(String urls) {
+        prefs.edit().putString(KEY_BACKUP_SERVER_URLS, urls != null ? urls : "").apply();
+    }
+    
+    // Server selection mode, takes effect for new ApiClients or ApiClient.updateBackends()
+    public String getServerSelection() {
+        String mode = prefs.getString(KEY_SERVER_SELECTION, DEFAULT_SERVER_SELECTION);
+        return SERVER_SELECTION_HASHED.equals(mode) ? SERVER_SELECTION_HASHED : SERVER_SELECTION_FAILOVER;
+    }
+    
+    public void setServerSelection(String mode) {
+        prefs.edit().putString(KEY_SERVER_SELECTION, mode).apply();
+    }
+    
+    // Primary server first, then the backups
+    public List<String> getServerUrls() {
+        // Normalized so every TV hashes the same strings in hashed mode
+        List<String> urls = new ArrayList<>();
+        urls.add(getServerUrl().trim().replaceAll("/+$", ""));
+        for (String url : getBackupServerUrls().split(",")) {
+            String trimmed = url.trim().replaceAll("/+$", "");
+            if (!trimmed.isEmpty() && !urls.contains(trimmed)) {
+                urls.add(trimmed);
+            }
+        }
+        return urls;
+    }
+    
     // Device Name
     public String getDeviceName() {
         return prefs.getString(KEY_DEVICE_NAME, getDefaultDeviceName());
@@ -124,6 +169,15 @@ public class SettingsManager {
         prefs.edit().putBoolean(KEY_KIOSK_MODE, enabled).apply();
     }
     
+    // HTTP/2 cleartext (h2c prior knowledge) for LAN backends, takes effect for new ApiClients
+    public boolean isHttp2PriorKnowledgeEnabled() {
+        return prefs.getBoolean(KEY_HTTP2_PRIOR_KNOWLEDGE, DEFAULT_HTTP2_PRIOR_KNOWLEDGE);
+    }
+    
+    public void setHttp2PriorKnowledgeEnabled(boolean enabled) {
+        prefs.edit().putBoolean(KEY_HTTP2_PRIOR_KNOWLEDGE, enabled).apply();
+    }
+    
     // First Run
     private boolean isFirstRun() {
         return prefs.getBoolean(KEY_FIRST_RUN, true);
@@ -173,10 +227,13 @@ public class SettingsManager {
     public String exportSettings() {
         StringBuilder sb = new StringBuilder();
         sb.append("server_url=").append(getServerUrl()).append("\n");
+        sb.append("backup_server_urls=").append(getBackupServerUrls()).append("\n");
         sb.append("device_name=").append(getDeviceName()).append("\n");
         sb.append("warning_time=").append(getWarningTimeMinutes()).append("\n");
         sb.append("auto_start=").append(isAutoStartEnabled()).append("\n");
         sb.append("overlay_position=").append(getOverlayPosition()).append("\n");
+        sb.append("http2_prior_knowledge=").append(isHttp2PriorKnowledgeEnabled()).append("\n");
+        sb.append("server_selection=").append(getServerSelection()).append("\n");
         return sb.toString();
     }
     
@@ -199,6 +256,9 @@ public class SettingsManager {
                         case "server_url":
                             editor.putString(KEY_SERVER_URL, value);
                             break;
+                        case "backup_server_urls":
+                            editor.putString(KEY_BACKUP_SERVER_URLS, value);
+                            break;
                         case "device_name":
                             editor.putString(KEY_DEVICE_NAME, value);
                             break;
@@ -213,6 +273,12 @@ public class SettingsManager {
                         case "overlay_position":
                             editor.putString(KEY_OVERLAY_POSITION, value);
                             break;
+                        case "http2_prior_knowledge":
+                            editor.putBoolean(KEY_HTTP2_PRIOR_KNOWLEDGE, Boolean.parseBoolean(value));
+                            break;
+                        case "server_selection":
+                            editor.putString(KEY_SERVER_SELECTION, value);
+                            break;
                     }
                 }
             }
@@ -233,11 +299,14 @@ public class SettingsManager {
         sb.append("=== APK Billing Settings Debug ===\n");
         sb.append("Server URL: ").append(getServerUrl()).append("\n");
         sb.append("API URL: ").append(getApiUrl()).append("\n");
+        sb.append("Backup Servers: ").append(getBackupServerUrls()).append("\n");
         sb.append("Device Name: ").append(getDeviceName()).append("\n");
         sb.append("Device ID: ").append(getDeviceId()).append("\n");
         sb.append("Warning Time: ").append(getWarningTimeMinutes()).append(" min\n");
         sb.append("Auto Start: ").append(isAutoStartEnabled()).append("\n");
         sb.append("Overlay Position: ").append(getOverlayPosition()).append("\n");
+        sb.append("HTTP/2 Prior Knowledge: ").append(isHttp2PriorKnowledgeEnabled()).append("\n");
+        sb.append("Server Selection: ").append(getServerSelection()).append("\n");
         sb.append("Valid Config: ").append(isValidConfiguration()).append("\n");
         sb.append("Device Model: ").append(Build.MODEL).append("\n");
         sb.append("Android Version: ").append(Build.VERSION.RELEASE).append("\n");
@@ -0,0 +1,223 @@
+package com.apkbilling.tv.network;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.reflect.TypeToken;
+
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// The hand-written adapters must read and write exactly what Gson's reflective
+// adapters do. A field added to a data class without its adapter fails here.
+public class ApiTypeAdaptersTest {
+    private static final Gson REFLECTIVE = new Gson();
+
+    private static final Class<?>[] DATA_CLASSES = {
+            ApiClient.DeviceRequest.class,
+            ApiClient.DeviceResponse.class,
+            ApiClient.SessionStartRequest.class,
+            ApiClient.SessionStopRequest.class,
+            ApiClient.SessionResponse.class,
+            ApiClient.HeartbeatRequest.class,
+            ApiClient.PhaseMetrics.class,
+            ApiClient.HeartbeatResponse.class,
+            ApiClient.SessionDigest.class,
+            ApiClient.BatchRequest.class,
+            ApiClient.BatchOperation.class,
+            ApiClient.BatchResponse.class,
+            ApiClient.BatchResult.class,
+    };
+
+    @Test
+    public void readsEveryFieldReflectionWrites() throws Exception {
+        for (Class<?> type : DATA_CLASSES) {
+            Object expected = populated(type);
+            JsonElement json = REFLECTIVE.toJsonTree(expected);
+
+            Object decoded = JsonCodec.GSON.getAdapter(type).fromJsonTree(json);
+
+            assertEquals(type.getSimpleName(), json, REFLECTIVE.toJsonTree(decoded));
+        }
+    }
+
+    @Test
+    public void writesEveryFieldReflectionReads() throws Exception {
+        for (Class<?> type : DATA_CLASSES) {
+            Object value = populated(type);
+
+            JsonElement written = JsonCodec.GSON.toJsonTree(value);
+
+            assertEquals(type.getSimpleName(), REFLECTIVE.toJsonTree(value), written);
+        }
+    }
+
+    @Test
+    public void readsEnvelopeWithTypedData() throws Exception {
+        ApiClient.ApiResponse<ApiClient.SessionResponse> expected = new ApiClient.ApiResponse<>();
+        expected.success = true;
+        expected.message = "ok";
+        expected.poll_interval_ms = 15000;
+        expected.data = populated(ApiClient.SessionResponse.class);
+        TypeToken<?> type = TypeToken.getParameterized(ApiClient.ApiResponse.class, ApiClient.SessionResponse.class);
+        String json = REFLECTIVE.toJson(expected, type.getType());
+
+        ApiClient.ApiResponse<ApiClient.SessionResponse> decoded = JsonCodec.SESSION_RESPONSE.fromJson(json);
+
+        assertEquals(REFLECTIVE.toJsonTree(expected, type.getType()), REFLECTIVE.toJsonTree(decoded, type.getType()));
+    }
+
+    @Test
+    public void truncatesNumericStrings() throws Exception {
+        ApiClient.SessionResponse session = session("\"42.5\"");
+
+        assertEquals(42, session.remaining_minutes);
+    }
+
+    @Test
+    public void readsNullAsZero() throws Exception {
+        assertEquals(0, session("null").remaining_minutes);
+    }
+
+    @Test
+    public void rejectsMalformedNumbers() throws Exception {
+        String[] malformed = {"\"abc\"", "\"\"", "true", "{}", "[1]", "\"NaN\"", "1e20"};
+        for (String value : malformed) {
+            try {
+                session(value);
+                fail("Accepted remaining_minutes " + value);
+            } catch (JsonSyntaxException expected) {
+                assertTrue(value, expected.getMessage().contains("remaining_minutes"));
+            }
+            // Gson's reflective adapter agrees that the value is invalid
+            try {
+                REFLECTIVE.fromJson("{\"remaining_minutes\":" + value + "}", ApiClient.SessionResponse.class);
+                fail("Reflection accepted remaining_minutes " + value);
+            } catch (JsonSyntaxException expected) {
+                // Same outcome as the hand-written adapter
+            }
+        }
+    }
+
+    @Test
+    public void readsStringBooleansLikeReflection() {
+        String[] values = {"\"true\"", "\"TRUE\"", "\"True\"", "\"1\"", "\"yes\"", "\"false\"", "\"\"", "true", "false", "null"};
+        for (String value : values) {
+            String json = "{\"success\":" + value + ",\"resync\":" + value + "}";
+            ApiClient.HeartbeatResponse expected = REFLECTIVE.fromJson(json, ApiClient.HeartbeatResponse.class);
+
+            ApiClient.HeartbeatResponse decoded = JsonCodec.GSON.fromJson(json, ApiClient.HeartbeatResponse.class);
+
+            assertEquals(value, expected.success, decoded.success);
+            assertEquals(value, expected.resync, decoded.resync);
+        }
+    }
+
+    @Test
+    public void rejectsNumberForBoolean() {
+        try {
+            JsonCodec.GSON.fromJson("{\"resync\":1}", ApiClient.HeartbeatResponse.class);
+            fail("Accepted a number for resync");
+        } catch (JsonSyntaxException expected) {
+            assertTrue(expected.getMessage().contains("resync"));
+        }
+        // Gson's reflective adapter agrees that the value is invalid
+        try {
+            REFLECTIVE.fromJson("{\"resync\":1}", ApiClient.HeartbeatResponse.class);
+            fail("Reflection accepted a number for resync");
+        } catch (JsonSyntaxException expected) {
+            // Same outcome as the hand-written adapter
+        }
+    }
+
+    @Test
+    public void rejectsObjectForString() {
+        try {
+            JsonCodec.GSON.fromJson("{\"customer_name\":{\"first\":\"A\"}}", ApiClient.SessionResponse.class);
+            fail("Accepted an object for customer_name");
+        } catch (JsonSyntaxException expected) {
+            assertTrue(expected.getMessage().contains("customer_name"));
+        }
+    }
+
+    @Test
+    public void skipsUnknownFields() throws Exception {
+        JsonObject json = REFLECTIVE.toJsonTree(populated(ApiClient.DeviceResponse.class)).getAsJsonObject();
+        json.add("added_later", new JsonPrimitive("x"));
+        json.add("nested_later", new JsonObject());
+
+        ApiClient.DeviceResponse decoded = JsonCodec.GSON.fromJson(json, ApiClient.DeviceResponse.class);
+
+        assertEquals(json.get("device_id").getAsString(), decoded.device_id);
+    }
+
+    @Test
+    public void leavesMissingSessionNull() {
+        ApiClient.HeartbeatResponse decoded = JsonCodec.GSON.fromJson("{\"success\":true}", ApiClient.HeartbeatResponse.class);
+
+        assertTrue(decoded.success);
+        assertFalse(decoded.resync);
+        assertNull(decoded.session);
+    }
+
+    private static ApiClient.SessionResponse session(String remainingMinutes) throws Exception {
+        return JsonCodec.GSON.getAdapter(ApiClient.SessionResponse.class)
+                .fromJson("{\"session_id\":7,\"remaining_minutes\":" + remainingMinutes + "}");
+    }
+
+    // Every field set to a distinct non-default value, nested objects and lists included
+    static <T> T populated(Class<T> type) throws Exception {
+        T value = type.getDeclaredConstructor().newInstance();
+        int index = 1;
+        for (Field field : type.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+            field.set(value, sample(field.getGenericType(), field.getName(), index++));
+        }
+        return value;
+    }
+
+    private static Object sample(Type type, String name, int index) throws Exception {
+        if (type == String.class) {
+            return name + "-" + index;
+        }
+        if (type == int.class) {
+            return 1000 + index;
+        }
+        if (type == long.class) {
+            return 5_000_000_000L + index;
+        }
+        if (type == boolean.class) {
+            return true;
+        }
+        if (type == JsonElement.class) {
+            JsonObject object = new JsonObject();
+            object.addProperty("success", true);
+            object.addProperty(name, index);
+            return object;
+        }
+        if (type instanceof ParameterizedType && ((ParameterizedType) type).getRawType() == List.class) {
+            Class<?> element = (Class<?>) ((ParameterizedType) type).getActualTypeArguments()[0];
+            List<Object> list = new ArrayList<>();
+            list.add(populated(element));
+            list.add(populated(element));
+            return list;
+        }
+        return populated((Class<?>) type);
+    }
+}
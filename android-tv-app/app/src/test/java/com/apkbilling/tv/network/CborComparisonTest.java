@@ -0,0 +1,314 @@
+package com.apkbilling.tv.network;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// CBOR against JSON for the hot payloads, on a local stand-in for the backend that
+// negotiates on Accept and Content-Type like a CBOR-capable server would. Prints bytes
+// on the wire and encode/decode time per call for both encodings; asserts that both
+// decode to the same value and that CBOR is the smaller one.
+public class CborComparisonTest {
+    private static final int WARMUP = 5_000;
+    private static final int ROUNDS = 4;
+    private static final int ITERATIONS = 5_000;
+
+    private static final Gson REFLECTIVE = new Gson();
+
+    private final StandIn standIn = new StandIn();
+    private final OkHttpClient client = new OkHttpClient();
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.setDispatcher(standIn);
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void activeSessionResponse() throws IOException {
+        ApiClient.ApiResponse<ApiClient.SessionResponse> response = new ApiClient.ApiResponse<>();
+        response.success = true;
+        response.message = "Active session found";
+        response.data = session();
+        compareResponse("active-session response", response, JsonCodec.SESSION_RESPONSE);
+    }
+
+    @Test
+    public void heartbeatResponse() throws IOException {
+        ApiClient.HeartbeatResponse heartbeat = new ApiClient.HeartbeatResponse();
+        heartbeat.success = true;
+        heartbeat.message = "Heartbeat received";
+        heartbeat.timestamp = "2026-10-16T18:34:40.112Z";
+        heartbeat.heartbeat_interval_ms = 30000;
+        heartbeat.state_version = 3;
+        heartbeat.session = new ApiClient.SessionDigest();
+        heartbeat.session.session_id = 1842;
+        heartbeat.session.remaining_seconds = 5250;
+        heartbeat.session.version = 9;
+        ApiClient.ApiResponse<ApiClient.HeartbeatResponse> response = new ApiClient.ApiResponse<>();
+        response.success = true;
+        response.data = heartbeat;
+        compareResponse("heartbeat response", response, JsonCodec.HEARTBEAT_RESPONSE);
+    }
+
+    @Test
+    public void heartbeatRequest() throws IOException {
+        compareRequest("heartbeat request", heartbeat(false), JsonCodec.HEARTBEAT_REQUEST);
+    }
+
+    @Test
+    public void heartbeatRequestWithMetrics() throws IOException {
+        compareRequest("heartbeat + metrics", heartbeat(true), JsonCodec.HEARTBEAT_REQUEST);
+    }
+
+    // Response bodies: the server picks the encoding from Accept, the client decodes by Content-Type
+    private <T> void compareResponse(String name, T value, TypeAdapter<T> adapter) throws IOException {
+        standIn.response = value;
+        standIn.responseAdapter = adapter;
+
+        byte[] json = fetch(JsonCodec.JSON.toString(), JsonCodec.JSON);
+        byte[] cbor = fetch(CborCodec.ACCEPT, CborCodec.CBOR);
+
+        T fromJson = JsonCodec.read(ResponseBody.create(json, JsonCodec.JSON), adapter);
+        T fromCbor = CborCodec.read(ResponseBody.create(cbor, CborCodec.CBOR), adapter);
+        assertEquals(REFLECTIVE.toJsonTree(fromJson), REFLECTIVE.toJsonTree(fromCbor));
+        assertEquals(REFLECTIVE.toJsonTree(value), REFLECTIVE.toJsonTree(fromCbor));
+
+        report(name, json.length, cbor.length, value, adapter, json, cbor);
+    }
+
+    // Request bodies: the server decodes whatever Content-Type the client sent
+    private <T> void compareRequest(String name, T value, TypeAdapter<T> adapter) throws IOException {
+        standIn.requestAdapter = adapter;
+
+        long json = post(JsonCodec.write(value, adapter));
+        long cbor = post(CborCodec.write(value, adapter));
+
+        List<Object> received = standIn.received();
+        assertEquals(2, received.size());
+        assertEquals(REFLECTIVE.toJsonTree(value), REFLECTIVE.toJsonTree(received.get(0)));
+        assertEquals(REFLECTIVE.toJsonTree(value), REFLECTIVE.toJsonTree(received.get(1)));
+
+        report(name, json, cbor, value, adapter, bytes(JsonCodec.write(value, adapter)), bytes(CborCodec.write(value, adapter)));
+    }
+
+    private <T> void report(String name, long jsonBytes, long cborBytes, T value, TypeAdapter<T> adapter,
+                            byte[] json, byte[] cbor) throws IOException {
+        Codec<T> jsonCodec = new Codec<T>() {
+            @Override
+            public RequestBody encode() throws IOException {
+                return JsonCodec.write(value, adapter);
+            }
+
+            @Override
+            public T decode() throws IOException {
+                return JsonCodec.read(ResponseBody.create(json, JsonCodec.JSON), adapter);
+            }
+        };
+        Codec<T> cborCodec = new Codec<T>() {
+            @Override
+            public RequestBody encode() {
+                return CborCodec.write(value, adapter);
+            }
+
+            @Override
+            public T decode() throws IOException {
+                return CborCodec.read(ResponseBody.create(cbor, CborCodec.CBOR), adapter);
+            }
+        };
+
+        double[] jsonNanos = {Double.MAX_VALUE, Double.MAX_VALUE};
+        double[] cborNanos = {Double.MAX_VALUE, Double.MAX_VALUE};
+        time(jsonCodec, WARMUP);
+        time(cborCodec, WARMUP);
+        for (int round = 0; round < ROUNDS; round++) {
+            Codec<T> first = round % 2 == 0 ? jsonCodec : cborCodec;
+            Codec<T> second = first == jsonCodec ? cborCodec : jsonCodec;
+            double[] firstNanos = time(first, ITERATIONS);
+            double[] secondNanos = time(second, ITERATIONS);
+            double[] jsonRound = first == jsonCodec ? firstNanos : secondNanos;
+            double[] cborRound = first == jsonCodec ? secondNanos : firstNanos;
+            for (int i = 0; i < 2; i++) {
+                jsonNanos[i] = Math.min(jsonNanos[i], jsonRound[i]);
+                cborNanos[i] = Math.min(cborNanos[i], cborRound[i]);
+            }
+        }
+
+        System.out.println(String.format(Locale.US,
+                "%-24s wire %5d B -> %5d B (%3.0f%%) | encode %5.2f -> %5.2f us | decode %5.2f -> %5.2f us",
+                name, jsonBytes, cborBytes, 100.0 * cborBytes / jsonBytes,
+                jsonNanos[0] / 1000, cborNanos[0] / 1000, jsonNanos[1] / 1000, cborNanos[1] / 1000));
+        assertTrue(name + ": CBOR " + cborBytes + " B vs JSON " + jsonBytes + " B", cborBytes < jsonBytes);
+    }
+
+    // Per-call nanos for {encode, decode}
+    private static double[] time(Codec<?> codec, int iterations) throws IOException {
+        long sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += codec.encode().contentLength();
+        }
+        long encode = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += codec.decode() != null ? 1 : 0;
+        }
+        long decode = System.nanoTime() - start;
+        if (sink == 0) {
+            throw new AssertionError("nothing measured");
+        }
+        return new double[]{encode / (double) iterations, decode / (double) iterations};
+    }
+
+    private byte[] fetch(String accept, MediaType expected) throws IOException {
+        Request request = new Request.Builder()
+                .url(server.url("/api/tv/active-session/ATV_1"))
+                .header("Accept", accept)
+                .build();
+        try (Response response = client.newCall(request).execute()) {
+            assertEquals(expected, response.body().contentType());
+            return response.body().bytes();
+        }
+    }
+
+    private long post(RequestBody body) throws IOException {
+        Request request = new Request.Builder()
+                .url(server.url("/api/tv/heartbeat/ATV_1"))
+                .post(body)
+                .build();
+        client.newCall(request).execute().close();
+        try {
+            return server.takeRequest().getBodySize();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static byte[] bytes(RequestBody body) throws IOException {
+        Buffer buffer = new Buffer();
+        body.writeTo(buffer);
+        return buffer.readByteArray();
+    }
+
+    private static ApiClient.SessionResponse session() {
+        ApiClient.SessionResponse session = new ApiClient.SessionResponse();
+        session.session_id = 1842;
+        session.device_id = 12;
+        session.customer_name = "Walk-in customer";
+        session.package_name = "Regular 2 hours";
+        session.duration_minutes = 120;
+        session.remaining_minutes = 87;
+        session.elapsed_minutes = 32;
+        session.amount = "15000.00";
+        session.status = "active";
+        session.start_time = "2026-10-16T18:02:11.000Z";
+        return session;
+    }
+
+    private static ApiClient.HeartbeatRequest heartbeat(boolean withMetrics) {
+        ApiClient.HeartbeatRequest heartbeat = new ApiClient.HeartbeatRequest();
+        heartbeat.state_version = 3;
+        heartbeat.device_name = "TV Room 4";
+        heartbeat.device_location = "2nd floor";
+        if (withMetrics) {
+            heartbeat.metrics = new ArrayList<>();
+            String[] endpoints = {"heartbeat", "active_session", "register"};
+            String[] phases = {"dns", "connect", "ttfb", "total"};
+            for (String endpoint : endpoints) {
+                for (String phase : phases) {
+                    ApiClient.PhaseMetrics metrics = new ApiClient.PhaseMetrics();
+                    metrics.endpoint = endpoint;
+                    metrics.phase = phase;
+                    metrics.count = 120;
+                    metrics.p50 = 12;
+                    metrics.p95 = 48;
+                    metrics.p99 = 95;
+                    metrics.max = 310;
+                    heartbeat.metrics.add(metrics);
+                }
+            }
+        }
+        return heartbeat;
+    }
+
+    private interface Codec<T> {
+        RequestBody encode() throws IOException;
+
+        T decode() throws IOException;
+    }
+
+    // A backend that speaks both encodings
+    private static final class StandIn extends Dispatcher {
+        volatile Object response;
+        volatile TypeAdapter<?> responseAdapter;
+        volatile TypeAdapter<?> requestAdapter;
+        private final List<Object> received = new ArrayList<>();
+
+        synchronized List<Object> received() {
+            return new ArrayList<>(received);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public MockResponse dispatch(RecordedRequest request) {
+            try {
+                if ("POST".equals(request.getMethod())) {
+                    MediaType type = MediaType.parse(request.getHeader("Content-Type"));
+                    ResponseBody body = ResponseBody.create(request.getBody().readByteArray(), type);
+                    Object value = CborCodec.isCbor(type)
+                            ? CborCodec.read(body, requestAdapter)
+                            : JsonCodec.read(body, requestAdapter);
+                    synchronized (this) {
+                        received.add(value);
+                    }
+                    return new MockResponse().setResponseCode(204);
+                }
+                String accept = request.getHeader("Accept");
+                RequestBody body = accept != null && accept.contains("application/cbor")
+                        ? CborCodec.write(response, (TypeAdapter<Object>) responseAdapter)
+                        : JsonCodec.write(response, (TypeAdapter<Object>) responseAdapter);
+                return new MockResponse()
+                        .setHeader("Content-Type", body.contentType().toString())
+                        .setBody(bytesOf(body));
+            } catch (IOException e) {
+                return new MockResponse().setResponseCode(500);
+            }
+        }
+
+        private static Buffer bytesOf(RequestBody body) throws IOException {
+            Buffer buffer = new Buffer();
+            body.writeTo(buffer);
+            return buffer;
+        }
+    }
+}
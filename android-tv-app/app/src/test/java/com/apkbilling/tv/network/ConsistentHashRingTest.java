@@ -0,0 +1,141 @@
+package com.apkbilling.tv.network;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+// Balance and remap churn of the device-to-backend ring, measured over a venue-sized
+// population of device ids. Prints the figures it asserts on.
+public class ConsistentHashRingTest {
+    private static final int DEVICES = 20_000;
+
+    @Test
+    public void spreadsDevicesEvenly() {
+        for (int nodes = 2; nodes <= 8; nodes++) {
+            ConsistentHashRing ring = new ConsistentHashRing(nodes(nodes));
+            Map<String, Integer> load = load(ring);
+
+            double mean = DEVICES / (double) nodes;
+            int max = 0;
+            int min = Integer.MAX_VALUE;
+            for (int count : load.values()) {
+                max = Math.max(max, count);
+                min = Math.min(min, count);
+            }
+            System.out.println(String.format(Locale.US, "%d nodes: max/mean %.3f, min/mean %.3f",
+                    nodes, max / mean, min / mean));
+            assertEquals(nodes, load.size());
+            assertTrue("max/mean " + max / mean + " with " + nodes + " nodes", max / mean < 1.25);
+            assertTrue("min/mean " + min / mean + " with " + nodes + " nodes", min / mean > 0.75);
+        }
+    }
+
+    @Test
+    public void addingNodeOnlyMovesDevicesToIt() {
+        List<String> before = nodes(4);
+        List<String> after = nodes(5);
+        String added = after.get(4);
+
+        int moved = churn(new ConsistentHashRing(before), new ConsistentHashRing(after), null, added);
+
+        double fraction = moved / (double) DEVICES;
+        System.out.println(String.format(Locale.US, "4 -> 5 nodes: %.3f moved (ideal %.3f)", fraction, 1 / 5.0));
+        assertTrue("moved " + fraction, fraction > 0.15 && fraction < 0.25);
+    }
+
+    @Test
+    public void removingNodeOnlyMovesItsDevices() {
+        List<String> before = nodes(5);
+        List<String> after = new ArrayList<>(before);
+        String removed = after.remove(2);
+
+        int moved = churn(new ConsistentHashRing(before), new ConsistentHashRing(after), removed, null);
+
+        double fraction = moved / (double) DEVICES;
+        System.out.println(String.format(Locale.US, "5 -> 4 nodes: %.3f moved (ideal %.3f)", fraction, 1 / 5.0));
+        assertTrue("moved " + fraction, fraction > 0.15 && fraction < 0.25);
+    }
+
+    @Test
+    public void mappingIgnoresListOrderAndDuplicates() {
+        List<String> nodes = nodes(4);
+        List<String> shuffled = Arrays.asList(nodes.get(2), nodes.get(0), nodes.get(3), nodes.get(1), nodes.get(0));
+        ConsistentHashRing ring = new ConsistentHashRing(nodes);
+        ConsistentHashRing other = new ConsistentHashRing(shuffled);
+
+        for (int i = 0; i < DEVICES; i++) {
+            assertEquals(ring.nodeFor(device(i)), other.nodeFor(device(i)));
+        }
+        assertEquals(4, other.getNodes().size());
+    }
+
+    @Test
+    public void preferenceListFailsOverToNextOwner() {
+        List<String> nodes = nodes(4);
+        ConsistentHashRing ring = new ConsistentHashRing(nodes);
+
+        for (int i = 0; i < 2_000; i++) {
+            List<String> order = ring.preferenceList(device(i));
+            assertEquals(4, order.size());
+            assertEquals(ring.nodeFor(device(i)), order.get(0));
+
+            // Removing the owner hands the device to the second entry
+            List<String> remaining = new ArrayList<>(nodes);
+            remaining.remove(order.get(0));
+            assertEquals(order.get(1), new ConsistentHashRing(remaining).nodeFor(device(i)));
+        }
+    }
+
+    @Test
+    public void emptyRingHasNoOwner() {
+        ConsistentHashRing ring = new ConsistentHashRing(new ArrayList<>());
+
+        assertNull(ring.nodeFor(device(1)));
+        assertTrue(ring.preferenceList(device(1)).isEmpty());
+    }
+
+    // Devices whose owner changed; each must move off the removed node or onto the added one
+    private static int churn(ConsistentHashRing before, ConsistentHashRing after, String removed, String added) {
+        int moved = 0;
+        for (int i = 0; i < DEVICES; i++) {
+            String from = before.nodeFor(device(i));
+            String to = after.nodeFor(device(i));
+            if (!from.equals(to)) {
+                moved++;
+                assertTrue(device(i) + " moved " + from + " -> " + to,
+                        from.equals(removed) || to.equals(added));
+            }
+        }
+        return moved;
+    }
+
+    private static Map<String, Integer> load(ConsistentHashRing ring) {
+        Map<String, Integer> load = new HashMap<>();
+        for (int i = 0; i < DEVICES; i++) {
+            load.merge(ring.nodeFor(device(i)), 1, Integer::sum);
+        }
+        return load;
+    }
+
+    private static List<String> nodes(int count) {
+        List<String> nodes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            nodes.add("http://192.168.1." + (10 + i) + ":3000");
+        }
+        return nodes;
+    }
+
+    // Same shape as SettingsManager's device ids: "ATV_" and the 64-bit Android ID in hex
+    private static String device(int i) {
+        return String.format(Locale.US, "ATV_%016x", i * 0x9e3779b97f4a7c15L);
+    }
+}
@@ -0,0 +1,109 @@
+package com.apkbilling.tv.network;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+// Decode cost of the hand-written ApiTypeAdapters against Gson's reflective adapters
+// for the two polled responses. Prints the numbers; only correctness is asserted,
+// timings vary too much between machines to gate a build on.
+//
+// "first" is a new Gson instance resolving its adapter and decoding once, which is
+// what a cold process pays per type. The JVM is shared with the other tests, so class
+// loading is not included; run this class alone for process-cold figures.
+// "steady" is the best of several rounds that alternate which path runs first. On a
+// desktop JIT the two are close there; the gap is in "first", and wider on ART.
+public class DecodeBenchmarkTest {
+    private static final int WARMUP = 20_000;
+    private static final int ROUNDS = 6;
+    private static final int ITERATIONS = 50_000;
+
+    private static final String SESSION_JSON = "{\"success\":true,\"message\":\"Active session found\","
+            + "\"data\":{\"session_id\":1842,\"device_id\":12,\"customer_name\":\"Walk-in customer\","
+            + "\"package_name\":\"Regular 2 hours\",\"duration_minutes\":120,\"remaining_minutes\":87,"
+            + "\"elapsed_minutes\":32,\"amount\":\"15000.00\",\"status\":\"active\","
+            + "\"start_time\":\"2026-10-16T18:02:11.000Z\",\"end_time\":null},"
+            + "\"timestamp\":\"2026-10-16T18:34:40.112Z\"}";
+
+    private static final String HEARTBEAT_JSON = "{\"success\":true,\"message\":\"Heartbeat received\","
+            + "\"data\":{\"success\":true,\"message\":\"ok\",\"timestamp\":\"2026-10-16T18:34:40.112Z\","
+            + "\"heartbeat_interval_ms\":30000,\"resync\":false,\"state_version\":3,"
+            + "\"session\":{\"session_id\":1842,\"remaining_seconds\":5250,\"version\":9}},"
+            + "\"timestamp\":\"2026-10-16T18:34:40.112Z\"}";
+
+    @Test
+    public void activeSession() throws IOException {
+        compare("active-session", SESSION_JSON, ApiClient.SessionResponse.class);
+    }
+
+    @Test
+    public void heartbeat() throws IOException {
+        compare("heartbeat", HEARTBEAT_JSON, ApiClient.HeartbeatResponse.class);
+    }
+
+    private static void compare(String name, String json, Class<?> dataType) throws IOException {
+        TypeToken<?> type = TypeToken.getParameterized(ApiClient.ApiResponse.class, dataType);
+
+        Gson reflectiveGson = new Gson();
+        long reflectiveFirst = first(reflectiveGson, type, json);
+        Gson generatedGson = new GsonBuilder().registerTypeAdapterFactory(ApiTypeAdapters.FACTORY).create();
+        long generatedFirst = first(generatedGson, type, json);
+
+        TypeAdapter<?> reflective = reflectiveGson.getAdapter(type);
+        TypeAdapter<?> generated = generatedGson.getAdapter(type);
+        assertEquals(reflectiveGson.toJsonTree(reflective.fromJson(json)),
+                reflectiveGson.toJsonTree(generated.fromJson(json)));
+
+        warmUp(reflective, json);
+        warmUp(generated, json);
+        double reflectiveNanos = Double.MAX_VALUE;
+        double generatedNanos = Double.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            if (round % 2 == 0) {
+                reflectiveNanos = Math.min(reflectiveNanos, perDecode(reflective, json));
+                generatedNanos = Math.min(generatedNanos, perDecode(generated, json));
+            } else {
+                generatedNanos = Math.min(generatedNanos, perDecode(generated, json));
+                reflectiveNanos = Math.min(reflectiveNanos, perDecode(reflective, json));
+            }
+        }
+
+        System.out.println(String.format(Locale.US,
+                "%-15s first: reflective %6.1f us, generated %6.1f us | steady: reflective %6.0f ns, generated %6.0f ns (%.2fx)",
+                name, reflectiveFirst / 1000.0, generatedFirst / 1000.0,
+                reflectiveNanos, generatedNanos, reflectiveNanos / generatedNanos));
+    }
+
+    private static long first(Gson gson, TypeToken<?> type, String json) throws IOException {
+        long start = System.nanoTime();
+        gson.getAdapter(type).fromJson(json);
+        return System.nanoTime() - start;
+    }
+
+    private static void warmUp(TypeAdapter<?> adapter, String json) throws IOException {
+        for (int i = 0; i < WARMUP; i++) {
+            adapter.fromJson(json);
+        }
+    }
+
+    private static double perDecode(TypeAdapter<?> adapter, String json) throws IOException {
+        Object sink = null;
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink = adapter.fromJson(json);
+        }
+        long elapsed = System.nanoTime() - start;
+        if (sink == null) {
+            throw new AssertionError("nothing decoded");
+        }
+        return elapsed / (double) ITERATIONS;
+    }
+}
@@ -0,0 +1,223 @@
+package com.apkbilling.tv.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ServerSocketFactory;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// HttpEngine's h2c prior-knowledge client against its HTTP/1.1 client, on a local
+// stand-in for the backend. Each round is the burst a TV sends after boot (heartbeat,
+// active session, registration, metrics) issued at once. Prints connection counts and
+// latency for both modes; asserts only on connection counts and the fallback.
+public class H2cComparisonTest {
+    private static final int ROUNDS = 25;
+    private static final String[] BURST = {
+            "/api/tv/heartbeat/ATV_1", "/api/tv/active-session/ATV_1", "/api/tv/register", "/api/tv/metrics/ATV_1"};
+    // Stand-in for the backend's database round trip
+    private static final long SERVER_DELAY_MS = 15;
+
+    private final HttpEngine engine = HttpEngine.getInstance();
+    private MockWebServer server;
+
+    @Before
+    public void setUp() {
+        engine.evictIdleConnections();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        engine.setPriorKnowledgeEnabled(false);
+        engine.evictIdleConnections();
+        if (server != null) {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void multiplexesBurstOnOneConnection() throws Exception {
+        Result http1 = run(false);
+        engine.evictIdleConnections();
+        Result h2c = run(true);
+
+        System.out.println("HTTP/1.1 " + http1);
+        System.out.println("h2c      " + h2c);
+        assertEquals(Protocol.HTTP_1_1, http1.protocol);
+        assertEquals(Protocol.H2_PRIOR_KNOWLEDGE, h2c.protocol);
+        assertEquals(1, h2c.connections);
+        assertTrue("HTTP/1.1 used " + http1.connections + " connections", http1.connections > 1);
+    }
+
+    @Test
+    public void fallsBackWhenServerOnlySpeaksHttp1() throws Exception {
+        server = start(Collections.singletonList(Protocol.HTTP_1_1));
+        HttpUrl url = server.url(BURST[0]);
+        engine.setPriorKnowledgeEnabled(true);
+
+        OkHttpClient selected = engine.clientFor(url);
+        assertTrue(engine.isPriorKnowledge(selected));
+        // The stand-in drops the connection at the h2 preface, as Node answers it with a 400 and closes
+        try {
+            selected.newCall(new Request.Builder().url(url).build()).execute().close();
+            fail("HTTP/1.1-only server accepted the h2 preface");
+        } catch (IOException e) {
+            assertTrue(engine.onPriorKnowledgeFailure(url, e));
+        }
+
+        OkHttpClient fallback = engine.clientFor(url);
+        assertFalse(engine.isPriorKnowledge(fallback));
+        assertSame(engine.getClient(), fallback);
+        try (Response response = fallback.newCall(new Request.Builder().url(url).build()).execute()) {
+            assertEquals(200, response.code());
+            assertEquals(Protocol.HTTP_1_1, response.protocol());
+        }
+    }
+
+    private Result run(boolean priorKnowledge) throws Exception {
+        if (server != null) {
+            server.shutdown();
+        }
+        server = start(priorKnowledge
+                ? Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE)
+                : Collections.singletonList(Protocol.HTTP_1_1));
+        engine.setPriorKnowledgeEnabled(priorKnowledge);
+        OkHttpClient client = engine.clientFor(server.url("/"));
+
+        Result result = new Result();
+        for (int round = 0; round < ROUNDS; round++) {
+            CountDownLatch done = new CountDownLatch(BURST.length);
+            for (String path : BURST) {
+                long start = System.nanoTime();
+                client.newCall(new Request.Builder().url(server.url(path)).build()).enqueue(new Callback() {
+                    @Override
+                    public void onFailure(Call call, IOException e) {
+                        result.fail();
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onResponse(Call call, Response response) throws IOException {
+                        try (Response body = response) {
+                            body.body().string();
+                            result.record(response.protocol(), System.nanoTime() - start);
+                        }
+                        done.countDown();
+                    }
+                });
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        }
+
+        for (int i = 0; i < server.getRequestCount(); i++) {
+            // The first exchange on each connection has sequence number 0
+            if (server.takeRequest().getSequenceNumber() == 0) {
+                result.connections++;
+            }
+        }
+        assertEquals(0, result.failures);
+        return result;
+    }
+
+    private static MockWebServer start(List<Protocol> protocols) throws IOException {
+        MockWebServer server = new MockWebServer();
+        server.setServerSocketFactory(new NoDelayServerSocketFactory());
+        server.setProtocols(protocols);
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse()
+                        .setHeader("Content-Type", "application/json; charset=utf-8")
+                        .setBody("{\"success\":true,\"data\":{}}")
+                        .setHeadersDelay(SERVER_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    // Node's HTTP server disables Nagle; without this the stand-in's separate header and
+    // body writes wait on delayed ACKs and every call takes ~40 ms in both modes
+    private static final class NoDelayServerSocketFactory extends ServerSocketFactory {
+        @Override
+        public ServerSocket createServerSocket() throws IOException {
+            return new ServerSocket() {
+                @Override
+                public Socket accept() throws IOException {
+                    Socket socket = super.accept();
+                    socket.setTcpNoDelay(true);
+                    return socket;
+                }
+            };
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port, int backlog) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port, int backlog, InetAddress address) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static final class Result {
+        final List<Long> latencies = new ArrayList<>();
+        Protocol protocol;
+        int connections;
+        int failures;
+
+        synchronized void fail() {
+            failures++;
+        }
+
+        synchronized void record(Protocol protocol, long nanos) {
+            this.protocol = protocol;
+            latencies.add(nanos);
+        }
+
+        @Override
+        public synchronized String toString() {
+            Collections.sort(latencies);
+            return String.format(Locale.US, "%d calls, %d connection(s), p50 %.1f ms, p95 %.1f ms, max %.1f ms",
+                    latencies.size(), connections,
+                    latencies.get(latencies.size() / 2) / 1e6,
+                    latencies.get(latencies.size() * 95 / 100) / 1e6,
+                    latencies.get(latencies.size() - 1) / 1e6);
+        }
+    }
+}
@@ -1,4 +1,32 @@
 const express = require('express');
+const crypto = require('crypto');
+
+/**
+ * Weak validator for an active-session lookup, computed only from what the TV acts on.
+ * The response envelope carries a fresh timestamp and remaining_minutes is fractional
+ * and derived from NOW(), so Express's body hash never matches; whole remaining minutes
+ * only change once a minute, which lets most polls be answered with a bare 304.
+ */
+function activeSessionEtag(row) {
+  const fields = row
+    ? [
+        row.session_id,
+        row.status,
+        row.end_time ? new Date(row.end_time).toISOString() : '',
+        row.duration_minutes,
+        Math.floor(Number(row.remaining_minutes)),
+        row.customer_name,
+        row.package_name
+      ]
+    : ['none'];
+  const digest = crypto.createHash('sha1').update(JSON.stringify(fields)).digest('base64url');
+  return `W/"as-${digest}"`;
+}
+
+function matchesEtag(req, etag) {
+  const header = req.get('If-None-Match');
+  return !!header && header.split(',').some((candidate) => candidate.trim() === etag);
+}
 
 /**
  * TV Management Routes
@@ -307,7 +335,7 @@ function createTVRoutes(container) {
         session = await database.query(`
           SELECT 
             ts.id as session_id, ts.device_id, ts.customer_name, ts.package_id,
-            ts.duration_minutes, ts.start_time, ts.status, ts.amount_paid as total_amount,
+            ts.duration_minutes, ts.start_time, ts.end_time, ts.status, ts.amount_paid as total_amount,
             bp.name as package_name,
             EXTRACT(EPOCH FROM (NOW() - ts.start_time))/60 as elapsed_minutes,
             GREATEST(0, ts.duration_minutes - EXTRACT(EPOCH FROM (NOW() - ts.start_time))/60) as remaining_minutes
@@ -323,11 +351,20 @@ function createTVRoutes(container) {
         session = { rows: [] };
       }
 
-      if (session.rows.length === 0) {
+      // TVs poll this every few seconds: revalidate instead of resending the session
+      const row = session.rows.length > 0 ? session.rows[0] : null;
+      const etag = activeSessionEtag(row);
+      res.set('ETag', etag);
+      res.set('Cache-Control', 'no-cache');
+      if (matchesEtag(req, etag)) {
+        return res.status(304).end();
+      }
+
+      if (!row) {
         return responseHandler.success(res, null, 'No active session found');
       }
 
-      return responseHandler.success(res, session.rows[0], 'Active session retrieved');
+      return responseHandler.success(res, row, 'Active session retrieved');
     } catch (error) {
       logger.error('Error getting active session', { error: error.message });
       return responseHandler.error(res, 'Failed to get active session', 500);